@@ -0,0 +1,71 @@
+package dev.acraig.util.streambuffer.benchmark;
+
+import dev.acraig.util.streambuffer.StreamBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * Benchmark for running a full stream through {@link StreamBuffer#buffer(java.util.stream.Stream, int, int)}.
+ * Scores are reported per source element, so the gc profiler's normalised allocation rate is bytes/element.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferBenchmark {
+    /**
+     * The number of elements in each source stream
+     */
+    static final int ELEMENTS = 1_000_000;
+
+    @Param({"1", "16"})
+    private int minSize;
+
+    @Param({"16", "1024"})
+    private int bufferLength;
+
+    @Param({"false", "true"})
+    private boolean parallel;
+
+    @Param({"ARRAY_LIST", "LONG_RANGE", "ITERATOR"})
+    private SourceType source;
+
+    /**
+     * The pre-boxed elements, shared between invocations
+     */
+    private List<Long> data;
+
+    @Setup
+    public void setUp() {
+        data = LongStream.range(0, ELEMENTS).boxed().collect(Collectors.toList());
+    }
+
+    /**
+     * Buffer the whole source, touching each batch (but not each element) downstream
+     * @return the number of elements seen, so the work can't be eliminated
+     */
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public long buffer() {
+        return StreamBuffer.buffer(source.open(data, parallel), minSize, bufferLength)
+                .mapToLong(List::size)
+                .sum();
+    }
+}
@@ -0,0 +1,52 @@
+package dev.acraig.util.streambuffer.benchmark;
+
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The kinds of source stream that the benchmarks are run against
+ */
+public enum SourceType {
+    /**
+     * A pre-populated {@link java.util.ArrayList} - sized, and splits evenly
+     */
+    ARRAY_LIST {
+        @Override
+        Stream<Long> open(final List<Long> data, final boolean parallel) {
+            Stream<Long> stream = data.stream();
+            return parallel ? stream.parallel() : stream;
+        }
+    },
+    /**
+     * A boxed {@link LongStream} range - sized, but boxes each element as it's read
+     */
+    LONG_RANGE {
+        @Override
+        Stream<Long> open(final List<Long> data, final boolean parallel) {
+            Stream<Long> stream = LongStream.range(0, data.size()).boxed();
+            return parallel ? stream.parallel() : stream;
+        }
+    },
+    /**
+     * An iterator with no size information - this will only split in batches
+     */
+    ITERATOR {
+        @Override
+        Stream<Long> open(final List<Long> data, final boolean parallel) {
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(data.iterator(), Spliterator.ORDERED),
+                    parallel);
+        }
+    };
+
+    /**
+     * Open a new stream over the data
+     * @param data the elements to stream
+     * @param parallel whether the stream should be parallel
+     * @return the new stream
+     */
+    abstract Stream<Long> open(List<Long> data, boolean parallel);
+}
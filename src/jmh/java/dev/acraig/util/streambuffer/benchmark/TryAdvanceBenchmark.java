@@ -0,0 +1,68 @@
+package dev.acraig.util.streambuffer.benchmark;
+
+import dev.acraig.util.streambuffer.StreamBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * Benchmark for pulling batches one at a time through {@link Spliterator#tryAdvance}, rather than
+ * letting the stream traverse the buffer in bulk. Comparing {@code minSize} 1 against larger values
+ * shows the cost of the look-ahead used to keep the minimum size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TryAdvanceBenchmark {
+    @Param({"1", "16"})
+    private int minSize;
+
+    @Param({"16", "1024"})
+    private int bufferLength;
+
+    @Param({"ARRAY_LIST", "LONG_RANGE", "ITERATOR"})
+    private SourceType source;
+
+    /**
+     * The pre-boxed elements, shared between invocations
+     */
+    private List<Long> data;
+
+    @Setup
+    public void setUp() {
+        data = LongStream.range(0, BufferBenchmark.ELEMENTS).boxed().collect(Collectors.toList());
+    }
+
+    /**
+     * Pull every batch from the buffer's spliterator
+     * @param blackhole the sink for each batch
+     */
+    @Benchmark
+    @OperationsPerInvocation(BufferBenchmark.ELEMENTS)
+    public void tryAdvance(final Blackhole blackhole) {
+        Spliterator<List<Long>> batches = StreamBuffer.buffer(source.open(data, false), minSize, bufferLength)
+                .spliterator();
+        while (batches.tryAdvance(blackhole::consume)) {
+            //keep pulling until the buffer is exhausted
+        }
+    }
+}
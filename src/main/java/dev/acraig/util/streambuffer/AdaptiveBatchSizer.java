@@ -0,0 +1,70 @@
+package dev.acraig.util.streambuffer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sizes batches to take a target time to process. The time taken for each element is tracked as a moving average
+ * of the batches processed so far, and the next batch is sized so that it would take the target time at that rate.
+ * The length is kept between a minimum and maximum, and grows by at most double from one batch to the next, so a
+ * single unusually quick batch can't cause a jump to the maximum.
+ */
+public final class AdaptiveBatchSizer implements BatchSizer {
+    /**
+     * The weight given to the most recent batch in the moving average
+     */
+    private static final double SMOOTHING = 0.25;
+    /**
+     * The smallest length to use
+     */
+    private final int minLength;
+    /**
+     * The largest length to use
+     */
+    private final int maxLength;
+    /**
+     * The time each batch should take to process, in nanoseconds
+     */
+    private final long targetNanos;
+    /**
+     * The moving average of the time taken for each element, in nanoseconds, or negative before the first batch
+     */
+    private double nanosPerElement = -1;
+    /**
+     * The length of the next batch
+     */
+    private int length;
+
+    /**
+     * Constructor
+     * @param minLength the smallest length to use, which is also the length of the first batch
+     * @param maxLength the largest length to use
+     * @param targetTime the time each batch should take to process
+     * @param unit the unit of the target time
+     */
+    public AdaptiveBatchSizer(final int minLength, final int maxLength, final long targetTime, final TimeUnit unit) {
+        if (minLength < 1 || maxLength < minLength) {
+            throw new IllegalArgumentException("Invalid length bounds " + minLength + " to " + maxLength);
+        }
+        this.minLength = minLength;
+        this.maxLength = maxLength;
+        this.targetNanos = unit.toNanos(targetTime);
+        this.length = minLength;
+    }
+
+    @Override
+    public synchronized int batchLength() {
+        return length;
+    }
+
+    @Override
+    public synchronized void batchProcessed(final int size, final long nanos) {
+        if (size <= 0) {
+            return;
+        }
+        double latest = (double) Math.max(nanos, 0) / size;
+        nanosPerElement = nanosPerElement < 0 ? latest : nanosPerElement + SMOOTHING * (latest - nanosPerElement);
+        double ideal = nanosPerElement > 0 ? targetNanos / nanosPerElement : maxLength;
+        long next = (long) Math.min(ideal, length * 2.0);
+        length = (int) Math.max(minLength, Math.min(maxLength, next));
+    }
+}
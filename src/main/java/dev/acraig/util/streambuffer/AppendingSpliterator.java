@@ -0,0 +1,79 @@
+package dev.acraig.util.streambuffer;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A spliterator with a fixed list of elements appended to the end of it. This is used when splitting a
+ * sized source, to move elements from the front of the remainder onto the end of the split-off prefix so
+ * that the prefix holds an exact number of batches.
+ * Splitting only ever splits the head, so the appended elements always stay at the end.
+ * @param <T> the datatype
+ */
+final class AppendingSpliterator<T> implements Spliterator<T> {
+    /**
+     * The spliterator whose elements come first
+     */
+    private final Spliterator<T> head;
+    /**
+     * The elements that come after the head
+     */
+    private final List<T> tail;
+    /**
+     * The index of the next element of the tail
+     */
+    private int index;
+
+    /**
+     * Constructor
+     * @param head the spliterator whose elements come first
+     * @param tail the elements that come after the head
+     */
+    AppendingSpliterator(final Spliterator<T> head, final List<T> tail) {
+        this.head = head;
+        this.tail = tail;
+    }
+
+    @Override
+    public boolean tryAdvance(final Consumer<? super T> action) {
+        if (head.tryAdvance(action)) {
+            return true;
+        } else if (index < tail.size()) {
+            action.accept(tail.get(index++));
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public void forEachRemaining(final Consumer<? super T> action) {
+        head.forEachRemaining(action);
+        while (index < tail.size()) {
+            action.accept(tail.get(index++));
+        }
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        return head.trySplit();
+    }
+
+    @Override
+    public long estimateSize() {
+        long headSize = head.estimateSize();
+        return headSize == Long.MAX_VALUE ? headSize : headSize + tail.size() - index;
+    }
+
+    @Override
+    public int characteristics() {
+        return head.characteristics();
+    }
+
+    @Override
+    public Comparator<? super T> getComparator() {
+        return head.getComparator();
+    }
+}
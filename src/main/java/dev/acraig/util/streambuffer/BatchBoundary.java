@@ -0,0 +1,30 @@
+package dev.acraig.util.streambuffer;
+
+/**
+ * Decides where one batch ends and the next begins, for buffers that cut batches on something other than
+ * a fixed element count. Each element is offered to the boundary before it's added - an element that isn't
+ * admitted starts the next batch instead.
+ * A boundary holds the state of the batch currently being built, so each buffer needs its own instance.
+ * @param <T> the datatype
+ */
+interface BatchBoundary<T> {
+    /**
+     * Called when a new batch is started
+     */
+    void start();
+
+    /**
+     * Check whether an element belongs in the current batch, recording it if it does. The first element
+     * of a batch must always be admitted.
+     * @param element the element
+     * @param batchSize the number of elements already in the batch
+     * @return true if the element belongs in the current batch, false if it should start the next one
+     */
+    boolean admit(T element, int batchSize);
+
+    /**
+     * @return a new boundary with the same rules, for use by a split-off buffer - or null if the buffer
+     * shouldn't be split, because a split could cut a batch in two
+     */
+    BatchBoundary<T> copy();
+}
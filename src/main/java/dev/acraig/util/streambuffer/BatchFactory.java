@@ -0,0 +1,23 @@
+package dev.acraig.util.streambuffer;
+
+import java.util.List;
+
+/**
+ * Creates the lists that {@link StreamBuffer} fills with each batch, for batches that need something other than
+ * a new {@link java.util.ArrayList} - such as being taken from a pool.
+ * @param <T> the datatype
+ */
+interface BatchFactory<T> {
+    /**
+     * Create a new, empty batch
+     * @param length the expected length of the batch
+     * @return the batch
+     */
+    List<T> newBatch(int length);
+
+    /**
+     * Called with a batch that was created, but never filled or sent, so that anything it holds can be released
+     * @param batch the batch
+     */
+    void discard(List<T> batch);
+}
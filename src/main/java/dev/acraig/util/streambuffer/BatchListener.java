@@ -0,0 +1,69 @@
+package dev.acraig.util.streambuffer;
+
+/**
+ * Receives events from a {@link StreamBuffer} as it forms batches and is split, for monitoring how the batching
+ * behaves. Every method does nothing by default, so a listener only needs to implement the events it's
+ * interested in. The events are sent on the thread forming the batch, so should be quick to handle - and if the
+ * buffered stream is parallel, the splits share the listener, so it must be safe to call from several threads.
+ */
+public interface BatchListener {
+    /**
+     * The result of trying to split the buffer for parallel processing
+     */
+    enum SplitOutcome {
+        /**
+         * The buffer was split
+         */
+        ACCEPTED,
+        /**
+         * Elements had already been read ahead, so a split-off prefix would be out of order
+         */
+        REFUSED_READ_AHEAD,
+        /**
+         * The source holds no more than two batches, so isn't worth splitting
+         */
+        REFUSED_TOO_SMALL,
+        /**
+         * The source itself couldn't be split
+         */
+        REFUSED_BY_SOURCE
+    }
+
+    /**
+     * Called when a new batch is started, before it's read from the source. The batch is formed on the same thread,
+     * unless the source turns out to have no more elements.
+     */
+    default void batchStarted() {
+    }
+
+    /**
+     * Called when a batch has been formed, before it's sent
+     * @param size the number of elements in the batch
+     * @param preferredLength the preferred length of the batch - a batch that's smaller was cut short by the end
+     *                        of the source, and one that's larger absorbed the remainder of the source
+     * @param fillNanos the time spent reading the batch from the source, in nanoseconds
+     */
+    default void batchFormed(int size, int preferredLength, long fillNanos) {
+    }
+
+    /**
+     * Called when fewer than the minimum size of elements were left at the end of the source, so they were
+     * added to the last batch rather than forming one of their own
+     * @param absorbed the number of elements added to the last batch
+     */
+    default void remainderAbsorbed(int absorbed) {
+    }
+
+    /**
+     * Called each time the buffer is asked to split
+     * @param outcome whether it was split, or why not
+     */
+    default void splitAttempted(SplitOutcome outcome) {
+    }
+
+    /**
+     * Called when the end of the source has been reached - after the last batch has been formed, if there is one
+     */
+    default void sourceExhausted() {
+    }
+}
@@ -0,0 +1,65 @@
+package dev.acraig.util.streambuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded pool of the lists backing {@link PooledBatch}es. When the pool is empty a new list is
+ * created, and when it is full a released list is left for the garbage collector - so the pool never
+ * blocks, it just limits how many idle lists are kept.
+ * Batches can be released on any thread (e.g. in a parallel stream), so this is thread safe.
+ * @param <T> the datatype
+ */
+final class BatchPool<T> implements BatchFactory<T> {
+    /**
+     * The idle lists
+     */
+    private final BlockingQueue<ArrayList<T>> idle;
+    /**
+     * The initial capacity of any newly created list
+     */
+    private final int initialCapacity;
+
+    /**
+     * Constructor
+     * @param poolSize the maximum number of idle lists to keep
+     * @param initialCapacity the initial capacity of any newly created list
+     */
+    BatchPool(final int poolSize, final int initialCapacity) {
+        this.idle = new ArrayBlockingQueue<>(poolSize);
+        this.initialCapacity = initialCapacity;
+    }
+
+    /**
+     * Take an empty batch from the pool
+     * @return the batch
+     */
+    PooledBatch<T> acquire() {
+        ArrayList<T> elements = idle.poll();
+        if (elements == null) {
+            elements = new ArrayList<>(initialCapacity);
+        }
+        return new PooledBatch<>(this, elements);
+    }
+
+    @Override
+    public PooledBatch<T> newBatch(final int length) {
+        return acquire();
+    }
+
+    @Override
+    public void discard(final List<T> batch) {
+        ((PooledBatch<T>) batch).close();
+    }
+
+    /**
+     * Return a list to the pool, to be reused by a later batch
+     * @param elements the list that was backing a batch
+     */
+    void release(final ArrayList<T> elements) {
+        elements.clear();
+        idle.offer(elements);
+    }
+}
@@ -0,0 +1,161 @@
+package dev.acraig.util.streambuffer;
+
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Sends each batch to a task on an executor, with at most a fixed number of tasks in flight at once.
+ * Reading the next batch waits for a permit, so a slow consumer holds back the source rather than
+ * queueing up every batch in memory. Once a task fails, no more batches are sent, and the first failure
+ * is rethrown to the caller after the tasks already sent have finished.
+ * @param <T> the datatype
+ */
+final class BatchProcessor<T> {
+    /**
+     * The factory method for an executor running each task on a new virtual thread, or null if
+     * virtual threads aren't available in this JVM
+     */
+    private static final Method VIRTUAL_THREAD_EXECUTOR = virtualThreadExecutor();
+    /**
+     * Receives each batch
+     */
+    private final Consumer<? super List<T>> consumer;
+    /**
+     * The maximum number of batches being processed at once
+     */
+    private final int maxConcurrency;
+    /**
+     * One permit for each batch that can be processed at once
+     */
+    private final Semaphore permits;
+    /**
+     * The first failure from the consumer
+     */
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * Constructor
+     * @param consumer receives each batch
+     * @param maxConcurrency the maximum number of batches being processed at once
+     */
+    BatchProcessor(final Consumer<? super List<T>> consumer, final int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("The maximum concurrency must be at least 1");
+        }
+        this.consumer = consumer;
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency);
+    }
+
+    /**
+     * Send every batch to a task on a new executor, which is shut down once they have all finished.
+     * The executor uses virtual threads where they are available, otherwise a fixed pool of threads.
+     * @param batches the batches to process
+     */
+    void process(final Iterator<List<T>> batches) {
+        ExecutorService executor = newExecutor();
+        try {
+            process(batches, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Send every batch to a task on the executor, and wait for them all to finish
+     * @param batches the batches to process
+     * @param executor runs each task
+     */
+    void process(final Iterator<List<T>> batches, final Executor executor) {
+        boolean held = false; //whether this thread holds a permit that hasn't been handed to a task
+        try {
+            acquire();
+            held = true;
+            while (failure.get() == null && batches.hasNext()) {
+                List<T> batch = batches.next();
+                executor.execute(() -> run(batch));
+                held = false;
+                acquire();
+                held = true;
+            }
+        } finally {
+            if (held) { //including when reading the source or sending the task failed
+                permits.release();
+            }
+            permits.acquireUninterruptibly(maxConcurrency); //wait for every task that has been sent to finish
+        }
+        Throwable first = failure.get();
+        if (first instanceof Error) {
+            throw (Error) first;
+        } else if (first != null) {
+            throw (RuntimeException) first;
+        }
+    }
+
+    /**
+     * Body of each task - process the batch, and record the failure if it's the first
+     * @param batch the batch to process
+     */
+    private void run(final List<T> batch) {
+        try {
+            if (failure.get() == null) {
+                consumer.accept(batch);
+            }
+        } catch (Throwable e) {
+            if (!failure.compareAndSet(null, e)) {
+                failure.get().addSuppressed(e);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Wait for a permit to become available, before reading the next batch
+     */
+    private void acquire() {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for batches to be processed", e);
+        }
+    }
+
+    /**
+     * @return an executor running each task on a new virtual thread, or a pool of daemon threads
+     * of the maximum concurrency if virtual threads aren't available
+     */
+    private ExecutorService newExecutor() {
+        if (VIRTUAL_THREAD_EXECUTOR != null) {
+            try {
+                return (ExecutorService) VIRTUAL_THREAD_EXECUTOR.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                //fall back to platform threads
+            }
+        }
+        return Executors.newFixedThreadPool(maxConcurrency, task -> {
+            Thread thread = new Thread(task, "stream-buffer-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return {@code Executors.newVirtualThreadPerTaskExecutor()}, or null if this JVM doesn't have it
+     */
+    private static Method virtualThreadExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package dev.acraig.util.streambuffer;
+
+/**
+ * Chooses the length of each batch while a stream is being buffered, rather than fixing it for the life of the
+ * stream. Each time a batch has been processed, the sizer is told how long it took, so that it can adjust the
+ * length of the following batches.
+ * If the buffered stream is parallel, the splits share the sizer - so it must be safe to call from several threads.
+ */
+public interface BatchSizer {
+    /**
+     * @return the preferred length of the next batch, which must be at least 1
+     */
+    int batchLength();
+
+    /**
+     * Called once a batch has been processed. The time is measured from when the batch was sent, until the
+     * next batch was asked for - so includes the time the consumer spent on the batch.
+     * @param size the number of elements in the batch
+     * @param nanos the time spent processing the batch, in nanoseconds
+     */
+    void batchProcessed(int size, long nanos);
+}
@@ -0,0 +1,201 @@
+package dev.acraig.util.streambuffer;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A listener that counts the events from a buffer. The counters are {@link LongAdder}s, so recording is cheap
+ * even when a parallel stream's splits all record into the same statistics. The time spent filling each batch
+ * is recorded in a histogram with a bucket for each power of two nanoseconds.
+ */
+public final class BatchStatistics implements BatchListener {
+    /**
+     * The number of histogram buckets - one for each bit of a long
+     */
+    private static final int BUCKETS = Long.SIZE;
+    /**
+     * The number of batches formed
+     */
+    private final LongAdder batches = new LongAdder();
+    /**
+     * The number of elements in all the batches formed
+     */
+    private final LongAdder elements = new LongAdder();
+    /**
+     * The largest batch formed
+     */
+    private final LongAccumulator maxBatchSize = new LongAccumulator(Math::max, 0);
+    /**
+     * The sum of the fill ratio (size over preferred length) of each batch
+     */
+    private final DoubleAdder fillRatios = new DoubleAdder();
+    /**
+     * The total time spent filling batches, in nanoseconds
+     */
+    private final LongAdder fillNanos = new LongAdder();
+    /**
+     * The number of times the remainder of the source was absorbed into the last batch
+     */
+    private final LongAdder absorptions = new LongAdder();
+    /**
+     * The number of split attempts with each outcome, indexed by the outcome's ordinal
+     */
+    private final LongAdder[] splits = newAdders(BatchListener.SplitOutcome.values().length);
+    /**
+     * The number of times the end of the source was reached
+     */
+    private final LongAdder exhausted = new LongAdder();
+    /**
+     * The number of batches whose fill time was in each power of two bucket
+     */
+    private final LongAdder[] fillHistogram = newAdders(BUCKETS);
+
+    @Override
+    public void batchFormed(final int size, final int preferredLength, final long nanos) {
+        batches.increment();
+        elements.add(size);
+        maxBatchSize.accumulate(size);
+        fillRatios.add(preferredLength > 0 ? (double) size / preferredLength : 1);
+        fillNanos.add(nanos);
+        fillHistogram[bucket(nanos)].increment();
+    }
+
+    @Override
+    public void remainderAbsorbed(final int absorbed) {
+        absorptions.increment();
+    }
+
+    @Override
+    public void splitAttempted(final SplitOutcome outcome) {
+        splits[outcome.ordinal()].increment();
+    }
+
+    @Override
+    public void sourceExhausted() {
+        exhausted.increment();
+    }
+
+    /**
+     * @return the number of batches formed
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * @return the number of elements in all the batches formed
+     */
+    public long getElements() {
+        return elements.sum();
+    }
+
+    /**
+     * @return the average number of elements in a batch, or 0 if no batches have been formed
+     */
+    public double getAverageBatchSize() {
+        long count = batches.sum();
+        return count == 0 ? 0 : (double) elements.sum() / count;
+    }
+
+    /**
+     * @return the largest number of elements in a batch
+     */
+    public long getMaxBatchSize() {
+        return maxBatchSize.get();
+    }
+
+    /**
+     * @return the average of the size of each batch over its preferred length, or 0 if no batches have been formed
+     */
+    public double getAverageFillRatio() {
+        long count = batches.sum();
+        return count == 0 ? 0 : fillRatios.sum() / count;
+    }
+
+    /**
+     * @return the total time spent reading batches from the source, in nanoseconds
+     */
+    public long getFillNanos() {
+        return fillNanos.sum();
+    }
+
+    /**
+     * @return the number of times the remainder of the source was absorbed into the last batch
+     */
+    public long getAbsorptions() {
+        return absorptions.sum();
+    }
+
+    /**
+     * @param outcome the outcome of the split attempts to count
+     * @return the number of split attempts with that outcome
+     */
+    public long getSplits(final SplitOutcome outcome) {
+        return splits[outcome.ordinal()].sum();
+    }
+
+    /**
+     * @return the number of times the end of the source was reached - once for each split of a parallel stream
+     */
+    public long getSourcesExhausted() {
+        return exhausted.sum();
+    }
+
+    /**
+     * The histogram of the time spent filling each batch. Bucket {@code i} counts the batches that took at least
+     * 2<sup>i</sup> nanoseconds, and less than 2<sup>i+1</sup> - except bucket 0, which also counts those that took
+     * no measurable time.
+     * @return the number of batches in each bucket
+     */
+    public long[] getFillTimeHistogram() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0 ; i < BUCKETS ; i++) {
+            counts[i] = fillHistogram[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * Estimate a percentile of the time spent filling each batch from the histogram
+     * @param percentile the percentile, between 0 and 100
+     * @return the upper bound of the histogram bucket holding the percentile, in nanoseconds, or 0 if no batches
+     * have been formed
+     */
+    public long getFillTimePercentile(final double percentile) {
+        long[] counts = getFillTimeHistogram();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        long target = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0 ; i < BUCKETS && total > 0 ; i++) {
+            seen += counts[i];
+            if (seen >= target && seen > 0) {
+                return i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param nanos a time in nanoseconds
+     * @return the histogram bucket for the time
+     */
+    private static int bucket(final long nanos) {
+        return nanos <= 1 ? 0 : BUCKETS - 1 - Long.numberOfLeadingZeros(nanos);
+    }
+
+    /**
+     * @param count the number of adders
+     * @return an array of new adders
+     */
+    private static LongAdder[] newAdders(final int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0 ; i < count ; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
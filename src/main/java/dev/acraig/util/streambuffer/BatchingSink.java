@@ -0,0 +1,118 @@
+package dev.acraig.util.streambuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The state of the collector returned by {@link StreamBuffer#batching(int, int, Consumer)}. Elements are added
+ * to the batch being built, followed by a look-ahead of the minimum size - once both are full, the batch is sent
+ * to the consumer. This cuts the batches in the same places as {@link StreamBuffer} would.
+ * When collecting in parallel, each thread sends its own full batches, and the unsent elements at the end of each
+ * thread are combined and cut again under the same rules.
+ * @param <T> the datatype
+ */
+final class BatchingSink<T> {
+    /**
+     * Receives each batch
+     */
+    private final Consumer<? super List<T>> consumer;
+    /**
+     * The preferred length of each batch
+     */
+    private final int preferredBufferLength;
+    /**
+     * The minimum size to send. If there are fewer elements than this remaining, then
+     * they will be added to the previous batch.
+     */
+    private final int minSize;
+    /**
+     * The number of elements to hold past the end of a batch before it can be sent
+     */
+    private final int lookahead;
+    /**
+     * The batch being built, followed by the look-ahead
+     */
+    private List<T> held;
+    /**
+     * The length of the batch currently being built
+     */
+    private int batchEnd;
+    /**
+     * The number of batches sent
+     */
+    private long sent;
+
+    /**
+     * Constructor
+     * @param consumer receives each batch
+     * @param minSize the size that it will absorb extra at the end if there's only a few remaining.
+     * @param preferredBufferLength the preferred length of each batch
+     */
+    BatchingSink(final Consumer<? super List<T>> consumer, final int minSize, final int preferredBufferLength) {
+        this.consumer = consumer;
+        this.preferredBufferLength = preferredBufferLength;
+        this.minSize = minSize;
+        this.lookahead = minSize > 1 ? minSize : 0;
+        this.batchEnd = preferredBufferLength;
+        this.held = newBatch();
+    }
+
+    /**
+     * Add an element, sending the batch if it and its look-ahead are now full
+     * @param element the element to add
+     */
+    void add(final T element) {
+        held.add(element);
+        if (held.size() == batchEnd + lookahead) {
+            send();
+        }
+    }
+
+    /**
+     * Combine the unsent elements of a later part of the stream onto this one
+     * @param other the state of the later part of the stream
+     * @return this state
+     */
+    BatchingSink<T> combine(final BatchingSink<T> other) {
+        for (T element : other.held) {
+            add(element);
+        }
+        sent += other.sent;
+        return this;
+    }
+
+    /**
+     * Send whatever is left as the final batch
+     * @return the number of batches sent
+     */
+    Long finish() {
+        if (!held.isEmpty()) {
+            consumer.accept(held);
+            held = newBatch();
+            sent++;
+        }
+        return sent;
+    }
+
+    /**
+     * Send the batch from the front of the held elements, keeping the look-ahead to start the next one
+     */
+    private void send() {
+        List<T> batch = held;
+        List<T> carried = batch.subList(batchEnd, batch.size());
+        held = newBatch();
+        held.addAll(carried);
+        carried.clear();
+        batchEnd = Math.max(preferredBufferLength, held.size());
+        consumer.accept(batch);
+        sent++;
+    }
+
+    /**
+     * @return a new list large enough for a batch and its look-ahead
+     */
+    private List<T> newBatch() {
+        return new ArrayList<>(Math.max(preferredBufferLength, minSize) + lookahead);
+    }
+}
@@ -0,0 +1,222 @@
+package dev.acraig.util.streambuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Buffer an input stream into batch groups, where each batch is cut by a {@link BatchBoundary} rather than
+ * by a fixed element count. The element that doesn't fit into a batch is held in the look-ahead, and starts
+ * the next batch. As with {@link StreamBuffer}, if the source ends with fewer than the minimum size of
+ * elements after a batch, they will be added to that batch.
+ * The length of a batch isn't known until it's been read, so the estimated size is the number of elements
+ * remaining in the source, and the stream isn't {@link Spliterator#SIZED}.
+ * @param <T> the datatype
+ */
+final class BoundaryStreamBuffer<T> extends Spliterators.AbstractSpliterator<List<T>> {
+    /**
+     * The characteristics of the source that still apply to the batches
+     */
+    private static final int KEPT_CHARACTERISTICS = Spliterator.ORDERED | Spliterator.IMMUTABLE | Spliterator.CONCURRENT;
+    /**
+     * The number of elements a batch is assumed to hold when deciding whether to split, as the real length
+     * depends on the elements. Each split can cut a batch short, so the source isn't split once it holds no more
+     * than twice this.
+     */
+    static final int SPLIT_LENGTH = 1024;
+    /**
+     * The source supplier that's being used
+     */
+    private final Spliterator<T> source;
+    /**
+     * Decides where each batch is cut
+     */
+    private final BatchBoundary<T> boundary;
+    /**
+     * The minimum size to return. If there are fewer elements than this remaining, then
+     * they will be added to the previous list.
+     */
+    private final int minSize;
+    /**
+     * The number of elements that must be held in the look-ahead before a batch can be sent
+     */
+    private final int lookahead;
+    /**
+     * The elements read past the end of the current batch
+     */
+    private final LookaheadBuffer<T> preBuffer;
+    /**
+     * Receives each element read by {@link #tryAdvance(Consumer)}
+     */
+    private final Consumer<T> holder;
+    /**
+     * The element most recently read by {@link #tryAdvance(Consumer)}
+     */
+    private T next;
+
+    /**
+     * Constructor
+     * @param source the source of the stream
+     * @param boundary decides where each batch is cut
+     * @param minSize the size that it will absorb extra at the end if there's only a few remaining.
+     */
+    BoundaryStreamBuffer(final Spliterator<T> source, final BatchBoundary<T> boundary, final int minSize) {
+        super(Long.MAX_VALUE, (source.characteristics() & KEPT_CHARACTERISTICS) | Spliterator.NONNULL);
+        this.source = source;
+        this.boundary = boundary;
+        this.minSize = minSize;
+        this.lookahead = Math.max(minSize, 1);
+        this.preBuffer = new LookaheadBuffer<>(lookahead);
+        this.holder = element -> next = element;
+    }
+
+    /**
+     * Try to advance to the next batch in the stream
+     * @param action the action to send the next batch to
+     * @return true if there was a batch to send, false otherwise
+     */
+    @Override
+    public boolean tryAdvance(final Consumer<? super List<T>> action) {
+        List<T> elements = new ArrayList<>();
+        boundary.start();
+        moveAdmitted(elements);
+        boolean hasElements = true;
+        if (preBuffer.isEmpty()) { //otherwise the batch has already been cut
+            while (hasElements && (hasElements = source.tryAdvance(holder))) {
+                T element = next;
+                next = null;
+                if (boundary.admit(element, elements.size())) {
+                    elements.add(element);
+                } else {
+                    preBuffer.offer(element);
+                    break;
+                }
+            }
+        }
+        //check to see if there are any additional elements present
+        //that may result in too small a list being formed.
+        while (hasElements && preBuffer.size() < minSize) {
+            hasElements = source.tryAdvance(preBuffer::offer);
+        }
+        if (!hasElements && preBuffer.size() < lookahead) { //fewer than minimum size remaining
+            preBuffer.drainTo(elements);
+        }
+        if (!elements.isEmpty()) {
+            action.accept(elements);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Send all remaining batches to the action, traversing the source in bulk
+     * @param action the action to send each batch to
+     */
+    @Override
+    public void forEachRemaining(final Consumer<? super List<T>> action) {
+        BulkBatcher batcher = new BulkBatcher(action);
+        source.forEachRemaining(batcher);
+        batcher.finish();
+    }
+
+    /**
+     * Try and split this iterator, based on however the source splits. This won't split
+     * once elements have been read ahead, as they would then be out of order, if the boundary doesn't allow it,
+     * or if the source is too small for the split to be worth cutting a batch short.
+     * @return the split version, or null if it can't be split
+     */
+    @Override
+    public Spliterator<List<T>> trySplit() {
+        if (!preBuffer.isEmpty() || source.estimateSize() <= Math.max(SPLIT_LENGTH, lookahead) * 2L) {
+            return null;
+        }
+        BatchBoundary<T> splitBoundary = boundary.copy();
+        if (splitBoundary == null) {
+            return null;
+        }
+        Spliterator<T> candidate = source.trySplit();
+        return candidate != null ? new BoundaryStreamBuffer<>(candidate, splitBoundary, minSize) : null;
+    }
+
+    /**
+     * @return the number of elements remaining, including those read ahead - an upper bound on the number of batches
+     */
+    @Override
+    public long estimateSize() {
+        long remaining = source.estimateSize();
+        return remaining == Long.MAX_VALUE ? remaining : remaining + preBuffer.size();
+    }
+
+    /**
+     * Move elements from the look-ahead into the batch, for as long as the boundary admits them
+     * @param elements the batch
+     */
+    private void moveAdmitted(final List<T> elements) {
+        while (!preBuffer.isEmpty() && boundary.admit(preBuffer.peek(), elements.size())) {
+            elements.add(preBuffer.poll());
+        }
+    }
+
+    /**
+     * Element consumer used for bulk traversal. This cuts the batches in the same places as
+     * {@link #tryAdvance(Consumer)} would - once an element isn't admitted, it and the following elements
+     * go into the look-ahead until either it holds the minimum size (and the batch can be sent), or the
+     * source runs out (and the look-ahead is absorbed into the batch).
+     */
+    private final class BulkBatcher implements Consumer<T> {
+        /**
+         * The action to send each completed batch to
+         */
+        private final Consumer<? super List<T>> action;
+        /**
+         * The batch currently being filled
+         */
+        private List<T> elements;
+
+        /**
+         * Constructor
+         * @param action the action to send each completed batch to
+         */
+        private BulkBatcher(final Consumer<? super List<T>> action) {
+            this.action = action;
+            this.elements = nextBatch();
+        }
+
+        @Override
+        public void accept(final T element) {
+            if (preBuffer.isEmpty() && boundary.admit(element, elements.size())) {
+                elements.add(element);
+            } else {
+                preBuffer.offer(element);
+                while (preBuffer.size() >= lookahead) { //enough remaining that the cut batch can go
+                    action.accept(elements);
+                    elements = nextBatch();
+                }
+            }
+        }
+
+        /**
+         * Called once the source is exhausted to send the final batch
+         */
+        private void finish() {
+            preBuffer.drainTo(elements); //fewer than minimum size remaining
+            if (!elements.isEmpty()) {
+                action.accept(elements);
+            }
+        }
+
+        /**
+         * Start a new batch, including whatever was held back in the look-ahead that fits
+         * @return the new batch
+         */
+        private List<T> nextBatch() {
+            List<T> batch = new ArrayList<>();
+            boundary.start();
+            moveAdmitted(batch);
+            return batch;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package dev.acraig.util.streambuffer;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Watches the heap for memory pressure, using the collection usage threshold of each heap pool that supports one.
+ * The JVM signals pressure when a pool still holds more than its threshold after a garbage collection. Once
+ * signalled, each check looks at whether the pools are still over their thresholds, and the pressure clears once
+ * none are.
+ * The collection usage thresholds are shared by the whole JVM, so closing this restores the previous thresholds.
+ */
+final class CollectionUsagePressure implements HeapPressure {
+    /**
+     * The heap pools with collection usage thresholds
+     */
+    private final List<MemoryPoolMXBean> pools;
+    /**
+     * The threshold of each pool before it was replaced, in the same order as the pools
+     */
+    private final List<Long> previousThresholds = new ArrayList<>();
+    /**
+     * Receives the notifications of memory pressure
+     */
+    private final NotificationListener listener = this::handleNotification;
+    /**
+     * Whether pressure has been signalled, and not yet cleared
+     */
+    private volatile boolean underPressure;
+
+    /**
+     * Constructor, watching every heap pool that supports a collection usage threshold
+     * @param usageThreshold the fraction of the maximum size of each heap pool that's still in use after a garbage
+     *                       collection for the heap to be under memory pressure, between 0 and 1
+     */
+    CollectionUsagePressure(final double usageThreshold) {
+        this(heapPools(), usageThreshold);
+    }
+
+    /**
+     * Constructor
+     * @param pools the pools to watch, which must support collection usage thresholds
+     * @param usageThreshold the fraction of the maximum size of each pool that's still in use after a garbage
+     *                       collection for the heap to be under memory pressure, between 0 and 1
+     */
+    CollectionUsagePressure(final List<MemoryPoolMXBean> pools, final double usageThreshold) {
+        if (!(usageThreshold > 0 && usageThreshold <= 1)) {
+            throw new IllegalArgumentException("The usage threshold must be between 0 and 1, not " + usageThreshold);
+        }
+        this.pools = pools;
+        for (MemoryPoolMXBean pool : pools) {
+            previousThresholds.add(pool.getCollectionUsageThreshold());
+            pool.setCollectionUsageThreshold(Math.max(1, (long) (pool.getUsage().getMax() * usageThreshold)));
+        }
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(listener, null, null);
+    }
+
+    /**
+     * @return whether the heap is under pressure - checking the pools again if it was
+     */
+    @Override
+    public boolean isUnderPressure() {
+        if (underPressure) {
+            underPressure = isAboveThreshold();
+        }
+        return underPressure;
+    }
+
+    /**
+     * Stop listening for memory pressure, and restore the previous collection usage thresholds
+     */
+    @Override
+    public void close() {
+        underPressure = false;
+        try {
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(listener);
+        } catch (ListenerNotFoundException e) {
+            return; //already closed
+        }
+        for (int i = 0 ; i < pools.size() ; i++) {
+            pools.get(i).setCollectionUsageThreshold(previousThresholds.get(i));
+        }
+    }
+
+    /**
+     * Mark the heap as being under pressure, as the JVM does when a pool is still over its threshold after a
+     * garbage collection
+     */
+    void pressureSignalled() {
+        underPressure = true;
+    }
+
+    /**
+     * Mark the heap as being under pressure when a collection usage threshold is exceeded
+     * @param notification the notification from the memory bean
+     * @param handback unused
+     */
+    private void handleNotification(final Notification notification, final Object handback) {
+        if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+            pressureSignalled();
+        }
+    }
+
+    /**
+     * @return whether any pool still held more than its threshold after the last garbage collection
+     */
+    private boolean isAboveThreshold() {
+        for (MemoryPoolMXBean pool : pools) {
+            if (pool.isCollectionUsageThresholdExceeded()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the heap pools that support a collection usage threshold, and have a maximum size
+     */
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> heap = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()
+                    && pool.getUsage().getMax() > 0) {
+                heap.add(pool);
+            }
+        }
+        return heap;
+    }
+}
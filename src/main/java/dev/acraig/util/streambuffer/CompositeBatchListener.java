@@ -0,0 +1,56 @@
+package dev.acraig.util.streambuffer;
+
+/**
+ * Sends each event from a buffer to two listeners in turn - used to keep the default flight recorder events
+ * alongside a listener that's been given
+ */
+final class CompositeBatchListener implements BatchListener {
+    /**
+     * The listener told first
+     */
+    private final BatchListener first;
+    /**
+     * The listener told second
+     */
+    private final BatchListener second;
+
+    /**
+     * Constructor
+     * @param first the listener told first
+     * @param second the listener told second
+     */
+    CompositeBatchListener(final BatchListener first, final BatchListener second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    @Override
+    public void batchStarted() {
+        first.batchStarted();
+        second.batchStarted();
+    }
+
+    @Override
+    public void batchFormed(final int size, final int preferredLength, final long fillNanos) {
+        first.batchFormed(size, preferredLength, fillNanos);
+        second.batchFormed(size, preferredLength, fillNanos);
+    }
+
+    @Override
+    public void remainderAbsorbed(final int absorbed) {
+        first.remainderAbsorbed(absorbed);
+        second.remainderAbsorbed(absorbed);
+    }
+
+    @Override
+    public void splitAttempted(final SplitOutcome outcome) {
+        first.splitAttempted(outcome);
+        second.splitAttempted(outcome);
+    }
+
+    @Override
+    public void sourceExhausted() {
+        first.sourceExhausted();
+        second.sourceExhausted();
+    }
+}
@@ -0,0 +1,53 @@
+package dev.acraig.util.streambuffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded pool of the direct buffers backing {@link OffHeapBatch}es. As with {@link BatchPool}, this never blocks -
+ * when the pool is empty a new buffer is allocated, and when it is full a released buffer is left for the garbage
+ * collector. Buffers that were allocated larger than the standard capacity, to hold an unusually large batch,
+ * aren't kept.
+ * Batches can be released on any thread (e.g. in a parallel stream), so this is thread safe.
+ */
+final class DirectBufferPool {
+    /**
+     * The idle buffers
+     */
+    private final BlockingQueue<ByteBuffer> idle;
+    /**
+     * The capacity of each buffer, in bytes
+     */
+    private final int capacity;
+
+    /**
+     * Constructor
+     * @param poolSize the maximum number of idle buffers to keep
+     * @param capacity the capacity of each buffer, in bytes
+     */
+    DirectBufferPool(final int poolSize, final int capacity) {
+        this.idle = new ArrayBlockingQueue<>(poolSize);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Take an empty buffer from the pool
+     * @return the buffer
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = idle.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Return a buffer to the pool, to be reused by a later batch
+     * @param buffer the buffer that was backing a batch
+     */
+    void release(final ByteBuffer buffer) {
+        if (buffer.capacity() == capacity) {
+            buffer.clear();
+            idle.offer(buffer);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package dev.acraig.util.streambuffer;
+
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Buffer a {@link java.util.stream.DoubleStream} into {@code double[]} batches
+ */
+final class DoubleStreamBuffer extends PrimitiveStreamBuffer<double[]> {
+    /**
+     * The source supplier that's being used
+     */
+    private final Spliterator.OfDouble source;
+    /**
+     * The working array, holding the batch being built and its look-ahead
+     */
+    private final double[] elements;
+    /**
+     * Adds each element read from the source to the working array
+     */
+    private final DoubleConsumer appender;
+
+    /**
+     * Constructor
+     * @param source the source of the stream
+     * @param minSize the size that it will absorb extra at the end if there's only a few remaining.
+     * @param preferredBufferLength the preferred length of each batch
+     */
+    DoubleStreamBuffer(final Spliterator.OfDouble source, final int minSize, final int preferredBufferLength) {
+        super(source, minSize, preferredBufferLength);
+        this.source = source;
+        this.elements = new double[capacity()];
+        this.appender = value -> elements[count++] = value;
+    }
+
+    @Override
+    boolean pull() {
+        return source.tryAdvance(appender);
+    }
+
+    @Override
+    void pullRemaining(final Consumer<? super double[]> action) {
+        source.forEachRemaining((double value) -> {
+            elements[count++] = value;
+            sendIfReady(action);
+        });
+    }
+
+    @Override
+    double[] workingArray() {
+        return elements;
+    }
+
+    @Override
+    double[] copyOf(final int length) {
+        return Arrays.copyOf(elements, length);
+    }
+
+    @Override
+    long estimateSourceSize() {
+        return source.estimateSize();
+    }
+
+    @Override
+    Spliterator<double[]> splitSource() {
+        Spliterator.OfDouble candidate = source.trySplit();
+        return candidate != null ? new DoubleStreamBuffer(candidate, minSize, preferredBufferLength) : null;
+    }
+}
@@ -0,0 +1,25 @@
+package dev.acraig.util.streambuffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts elements to and from bytes, so that batches can be held outside of the heap.
+ * @param <T> the datatype
+ */
+public interface ElementCodec<T> {
+    /**
+     * Write an element at the current position of the buffer, advancing the position past it
+     * @param element the element to write
+     * @param target the buffer to write to
+     * @throws java.nio.BufferOverflowException if there isn't room in the buffer for the element
+     */
+    void encode(T element, ByteBuffer target);
+
+    /**
+     * Read an element from the current position of the buffer, which holds exactly the bytes that were
+     * written by {@link #encode(Object, ByteBuffer)}
+     * @param source the buffer to read from
+     * @return the element
+     */
+    T decode(ByteBuffer source);
+}
@@ -0,0 +1,17 @@
+package dev.acraig.util.streambuffer;
+
+/**
+ * Tells a {@link MemoryPressureBatchSizer} whether the heap is under memory pressure
+ */
+interface HeapPressure extends AutoCloseable {
+    /**
+     * @return whether the heap is currently under memory pressure
+     */
+    boolean isUnderPressure();
+
+    /**
+     * Stop watching the heap
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,71 @@
+package dev.acraig.util.streambuffer;
+
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Buffer a {@link java.util.stream.IntStream} into {@code int[]} batches
+ */
+final class IntStreamBuffer extends PrimitiveStreamBuffer<int[]> {
+    /**
+     * The source supplier that's being used
+     */
+    private final Spliterator.OfInt source;
+    /**
+     * The working array, holding the batch being built and its look-ahead
+     */
+    private final int[] elements;
+    /**
+     * Adds each element read from the source to the working array
+     */
+    private final IntConsumer appender;
+
+    /**
+     * Constructor
+     * @param source the source of the stream
+     * @param minSize the size that it will absorb extra at the end if there's only a few remaining.
+     * @param preferredBufferLength the preferred length of each batch
+     */
+    IntStreamBuffer(final Spliterator.OfInt source, final int minSize, final int preferredBufferLength) {
+        super(source, minSize, preferredBufferLength);
+        this.source = source;
+        this.elements = new int[capacity()];
+        this.appender = value -> elements[count++] = value;
+    }
+
+    @Override
+    boolean pull() {
+        return source.tryAdvance(appender);
+    }
+
+    @Override
+    void pullRemaining(final Consumer<? super int[]> action) {
+        source.forEachRemaining((int value) -> {
+            elements[count++] = value;
+            sendIfReady(action);
+        });
+    }
+
+    @Override
+    int[] workingArray() {
+        return elements;
+    }
+
+    @Override
+    int[] copyOf(final int length) {
+        return Arrays.copyOf(elements, length);
+    }
+
+    @Override
+    long estimateSourceSize() {
+        return source.estimateSize();
+    }
+
+    @Override
+    Spliterator<int[]> splitSource() {
+        Spliterator.OfInt candidate = source.trySplit();
+        return candidate != null ? new IntStreamBuffer(candidate, minSize, preferredBufferLength) : null;
+    }
+}
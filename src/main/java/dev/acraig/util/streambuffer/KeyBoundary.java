@@ -0,0 +1,54 @@
+package dev.acraig.util.streambuffer;
+
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Cut batches wherever the key of the elements changes, so that each batch holds a run of consecutive elements
+ * with equal keys. A run longer than the maximum length is cut into several batches.
+ * A split of the source could fall in the middle of a run, so buffers using this boundary aren't split.
+ * @param <T> the datatype
+ */
+final class KeyBoundary<T> implements BatchBoundary<T> {
+    /**
+     * The function giving the key of each element
+     */
+    private final Function<? super T, ?> key;
+    /**
+     * The maximum number of elements in a batch
+     */
+    private final int maxLength;
+    /**
+     * The key of the current batch
+     */
+    private Object currentKey;
+
+    /**
+     * Constructor
+     * @param key the function giving the key of each element
+     * @param maxLength the maximum number of elements in a batch
+     */
+    KeyBoundary(final Function<? super T, ?> key, final int maxLength) {
+        this.key = key;
+        this.maxLength = maxLength;
+    }
+
+    @Override
+    public void start() {
+        currentKey = null;
+    }
+
+    @Override
+    public boolean admit(final T element, final int batchSize) {
+        if (batchSize == 0) {
+            currentKey = key.apply(element);
+            return true;
+        }
+        return batchSize < maxLength && Objects.equals(currentKey, key.apply(element));
+    }
+
+    @Override
+    public BatchBoundary<T> copy() {
+        return null;
+    }
+}
@@ -0,0 +1,168 @@
+package dev.acraig.util.streambuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Buffer a blocking queue into batch groups, where a batch is sent once it is full, or once it has
+ * waited the maximum linger time since its first element arrived - whichever comes first.
+ * This bounds the latency of a slow or trickling source, at the cost of sending smaller batches.
+ * The end of the source is marked by a sentinel element, which is compared by identity.
+ * @param <T> the datatype
+ */
+final class LingeringBuffer<T> extends Spliterators.AbstractSpliterator<List<T>> {
+    /**
+     * The queue that's being read from
+     */
+    private final BlockingQueue<T> source;
+    /**
+     * The element marking the end of the source
+     */
+    private final T endOfStream;
+    /**
+     * The preferred length of each batch
+     */
+    private final int preferredBufferLength;
+    /**
+     * The minimum size to return. If the source ends with fewer elements than this after a full batch,
+     * then they will be added to that batch.
+     */
+    private final int minSize;
+    /**
+     * The maximum time to wait after the first element in a batch, in nanoseconds
+     */
+    private final long maxLingerNanos;
+    /**
+     * Pre-buffer to allow for checking that the minimum size condition is kept
+     */
+    private final LookaheadBuffer<T> preBuffer;
+    /**
+     * The {@link System#nanoTime()} the first element held in the pre-buffer arrived, which is when the
+     * linger time of the batch it starts is measured from
+     */
+    private long heldSince;
+    /**
+     * Whether the end of the source has been reached
+     */
+    private boolean finished;
+
+    /**
+     * Constructor
+     * @param source the queue to read from
+     * @param endOfStream the element marking the end of the source
+     * @param minSize the size that it will absorb extra at the end if there's only a few remaining.
+     * @param preferredBufferLength the preferred length of each batch
+     * @param maxLingerNanos the maximum time to wait after the first element in a batch, in nanoseconds
+     */
+    LingeringBuffer(final BlockingQueue<T> source, final T endOfStream, final int minSize, final int preferredBufferLength,
+                    final long maxLingerNanos) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.source = source;
+        this.endOfStream = endOfStream;
+        this.minSize = minSize;
+        this.preferredBufferLength = preferredBufferLength;
+        this.maxLingerNanos = maxLingerNanos;
+        this.preBuffer = minSize > 1 ? new LookaheadBuffer<>(minSize) : null;
+    }
+
+    /**
+     * Wait for the next batch. This blocks indefinitely for the first element of a batch, and then
+     * until at most the maximum linger time after it arrived for the rest. Once the batch is full, it only
+     * looks ahead at the elements already in the queue, so a full batch isn't held back.
+     * @param action the action to send the next batch to
+     * @return true if there was a batch to send, false if the source has ended
+     */
+    @Override
+    public boolean tryAdvance(final Consumer<? super List<T>> action) {
+        List<T> elements = new ArrayList<>(preferredBufferLength);
+        long deadline = heldSince + maxLingerNanos; //only used once the batch has an element
+        if (preBuffer != null) {
+            preBuffer.drainTo(elements);
+        }
+        boolean lingering = true;
+        while (!finished && lingering && elements.size() < preferredBufferLength) {
+            T next;
+            if (elements.isEmpty()) {
+                next = take();
+                deadline = System.nanoTime() + maxLingerNanos;
+            } else {
+                next = poll(deadline);
+            }
+            if (next == null) {
+                lingering = false;
+            } else if (next == endOfStream) {
+                finished = true;
+            } else {
+                elements.add(next);
+            }
+        }
+        if (preBuffer != null) {
+            //check to see if the source ends soon after this batch, in which case
+            //the remainder would make too small a list. This only happens once the batch is full (otherwise it
+            //has lingered or finished), so only what's already queued is taken, rather than holding it back.
+            while (!finished && lingering && preBuffer.size() < minSize) {
+                T next = source.poll();
+                if (next == null) {
+                    lingering = false;
+                } else if (next == endOfStream) {
+                    finished = true;
+                } else {
+                    if (preBuffer.isEmpty()) {
+                        heldSince = System.nanoTime();
+                    }
+                    preBuffer.offer(next);
+                }
+            }
+            if (finished) { //fewer than minimum size remaining
+                preBuffer.drainTo(elements);
+            }
+        }
+        if (!elements.isEmpty()) {
+            action.accept(elements);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * A queue can't be split
+     * @return null
+     */
+    @Override
+    public Spliterator<List<T>> trySplit() {
+        return null;
+    }
+
+    /**
+     * Wait for the next element from the source
+     * @return the next element
+     */
+    private T take() {
+        try {
+            return source.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for the next element", e);
+        }
+    }
+
+    /**
+     * Wait until the deadline for the next element from the source
+     * @param deadline the {@link System#nanoTime()} to wait until
+     * @return the next element, or null if the deadline has passed
+     */
+    private T poll(final long deadline) {
+        try {
+            return source.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for the next element", e);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package dev.acraig.util.streambuffer;
+
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Buffer a {@link java.util.stream.LongStream} into {@code long[]} batches
+ */
+final class LongStreamBuffer extends PrimitiveStreamBuffer<long[]> {
+    /**
+     * The source supplier that's being used
+     */
+    private final Spliterator.OfLong source;
+    /**
+     * The working array, holding the batch being built and its look-ahead
+     */
+    private final long[] elements;
+    /**
+     * Adds each element read from the source to the working array
+     */
+    private final LongConsumer appender;
+
+    /**
+     * Constructor
+     * @param source the source of the stream
+     * @param minSize the size that it will absorb extra at the end if there's only a few remaining.
+     * @param preferredBufferLength the preferred length of each batch
+     */
+    LongStreamBuffer(final Spliterator.OfLong source, final int minSize, final int preferredBufferLength) {
+        super(source, minSize, preferredBufferLength);
+        this.source = source;
+        this.elements = new long[capacity()];
+        this.appender = value -> elements[count++] = value;
+    }
+
+    @Override
+    boolean pull() {
+        return source.tryAdvance(appender);
+    }
+
+    @Override
+    void pullRemaining(final Consumer<? super long[]> action) {
+        source.forEachRemaining((long value) -> {
+            elements[count++] = value;
+            sendIfReady(action);
+        });
+    }
+
+    @Override
+    long[] workingArray() {
+        return elements;
+    }
+
+    @Override
+    long[] copyOf(final int length) {
+        return Arrays.copyOf(elements, length);
+    }
+
+    @Override
+    long estimateSourceSize() {
+        return source.estimateSize();
+    }
+
+    @Override
+    Spliterator<long[]> splitSource() {
+        Spliterator.OfLong candidate = source.trySplit();
+        return candidate != null ? new LongStreamBuffer(candidate, minSize, preferredBufferLength) : null;
+    }
+}
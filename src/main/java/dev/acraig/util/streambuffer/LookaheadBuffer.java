@@ -0,0 +1,115 @@
+package dev.acraig.util.streambuffer;
+
+import java.util.Collection;
+
+/**
+ * Fixed capacity circular buffer used to hold the elements read ahead of the current batch.
+ * A spliterator is only ever used by one thread at a time, so unlike a {@link java.util.Queue} from
+ * {@code java.util.concurrent} this does no locking at all.
+ * @param <T> the datatype
+ */
+final class LookaheadBuffer<T> {
+    /**
+     * The ring of elements
+     */
+    private final Object[] elements;
+    /**
+     * The index of the oldest element
+     */
+    private int head;
+    /**
+     * The number of elements currently held
+     */
+    private int size;
+
+    /**
+     * Constructor
+     * @param capacity the maximum number of elements to hold
+     */
+    LookaheadBuffer(final int capacity) {
+        this.elements = new Object[capacity];
+    }
+
+    /**
+     * Add an element to the end of the buffer
+     * @param element the element to add
+     * @return true if it was added, false if the buffer is already full
+     */
+    boolean offer(final T element) {
+        if (size == elements.length) {
+            return false;
+        }
+        int tail = head + size;
+        if (tail >= elements.length) {
+            tail -= elements.length;
+        }
+        elements[tail] = element;
+        size++;
+        return true;
+    }
+
+    /**
+     * @return the oldest element, or null if the buffer is empty
+     */
+    T peek() {
+        return size == 0 ? null : elementAt(head);
+    }
+
+    /**
+     * Remove the oldest element
+     * @return the oldest element, or null if the buffer is empty
+     */
+    T poll() {
+        if (size == 0) {
+            return null;
+        }
+        T element = elementAt(head);
+        elements[head] = null;
+        if (++head == elements.length) {
+            head = 0;
+        }
+        size--;
+        return element;
+    }
+
+    /**
+     * Move every element in the buffer, oldest first, to the end of the target
+     * @param target the collection to add the elements to
+     */
+    void drainTo(final Collection<? super T> target) {
+        int index = head;
+        for (int i = 0 ; i < size ; i++) {
+            target.add(elementAt(index));
+            elements[index] = null;
+            if (++index == elements.length) {
+                index = 0;
+            }
+        }
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * @return the number of elements currently held
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the buffer holds no elements
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get the element in the given slot of the ring
+     * @param index the slot
+     * @return the element
+     */
+    @SuppressWarnings("unchecked")
+    private T elementAt(final int index) {
+        return (T) elements[index];
+    }
+}
@@ -0,0 +1,147 @@
+package dev.acraig.util.streambuffer;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Buffers a source into batches, maps each batch with a function returning one result for each element, and
+ * returns the results directly from each result list. As there's a result for each element, the size of the
+ * source is also the number of results - so a sized source stays sized, and can be split the same way.
+ * @param <T> the datatype of the source elements
+ * @param <R> the datatype of the results
+ */
+final class MappedBatchSpliterator<T, R> implements Spliterator<R> {
+    /**
+     * The characteristics of the source that still apply to the results
+     */
+    private static final int KEPT_CHARACTERISTICS = Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED;
+    /**
+     * The source of the elements
+     */
+    private final Spliterator<T> source;
+    /**
+     * The batches read from the source. With no minimum size this never reads ahead, so the source can
+     * be split between batches.
+     */
+    private final StreamBuffer<T> batches;
+    /**
+     * Maps each batch to its results
+     */
+    private final Function<? super List<T>, ? extends List<R>> mapper;
+    /**
+     * The preferred length of each batch
+     */
+    private final int preferredBufferLength;
+    /**
+     * Receives each batch read by {@link #tryAdvance(Consumer)}
+     */
+    private final Consumer<List<T>> mapping;
+    /**
+     * The results of the current batch that haven't been returned yet
+     */
+    private Iterator<R> current = Collections.emptyIterator();
+    /**
+     * The number of results of the current batch that haven't been returned yet
+     */
+    private int remaining;
+
+    /**
+     * Constructor
+     * @param source the source of the elements
+     * @param preferredBufferLength the preferred length of each batch
+     * @param mapper maps each batch to its results
+     */
+    MappedBatchSpliterator(final Spliterator<T> source, final int preferredBufferLength,
+                           final Function<? super List<T>, ? extends List<R>> mapper) {
+        this.source = source;
+        this.batches = new StreamBuffer<>(source, 1, preferredBufferLength, null);
+        this.mapper = mapper;
+        this.preferredBufferLength = preferredBufferLength;
+        this.mapping = batch -> {
+            List<R> results = apply(batch);
+            current = results.iterator();
+            remaining = results.size();
+        };
+    }
+
+    /**
+     * Return the next result, mapping the next batch if the current one is finished
+     * @param action the action to send the next result to
+     * @return true if there was a result to send, false otherwise
+     */
+    @Override
+    public boolean tryAdvance(final Consumer<? super R> action) {
+        while (remaining == 0) {
+            if (!batches.tryAdvance(mapping)) {
+                return false;
+            }
+        }
+        remaining--;
+        action.accept(current.next());
+        return true;
+    }
+
+    /**
+     * Send all remaining results to the action, traversing the batches in bulk
+     * @param action the action to send each result to
+     */
+    @Override
+    public void forEachRemaining(final Consumer<? super R> action) {
+        while (remaining > 0) {
+            remaining--;
+            action.accept(current.next());
+        }
+        batches.forEachRemaining(batch -> {
+            for (R result : apply(batch)) {
+                action.accept(result);
+            }
+        });
+    }
+
+    /**
+     * Try and split the source. This won't split while there are results of the current batch to return,
+     * as they would then be out of order.
+     * @return the split version, or null if it can't be split
+     */
+    @Override
+    public Spliterator<R> trySplit() {
+        if (remaining > 0 || source.estimateSize() <= preferredBufferLength * 2L) {
+            return null;
+        }
+        Spliterator<T> prefix = source.trySplit();
+        return prefix != null ? new MappedBatchSpliterator<>(prefix, preferredBufferLength, mapper) : null;
+    }
+
+    /**
+     * @return the number of elements left in the source, plus the results of the current batch
+     */
+    @Override
+    public long estimateSize() {
+        long sourceSize = source.estimateSize();
+        return sourceSize == Long.MAX_VALUE ? sourceSize : sourceSize + remaining;
+    }
+
+    @Override
+    public int characteristics() {
+        return source.characteristics() & KEPT_CHARACTERISTICS;
+    }
+
+    /**
+     * Map a batch, checking that there's a result for each element
+     * @param batch the batch to map
+     * @return the results
+     * @throws IllegalStateException if the number of results doesn't match the batch
+     */
+    private List<R> apply(final List<T> batch) {
+        List<R> results = mapper.apply(batch);
+        if (results.size() != batch.size()) {
+            throw new IllegalStateException("Mapped a batch of " + batch.size() + " elements to " + results.size()
+                    + " results");
+        }
+        return results;
+    }
+}
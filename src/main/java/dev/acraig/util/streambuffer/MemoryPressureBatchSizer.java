@@ -0,0 +1,128 @@
+package dev.acraig.util.streambuffer;
+
+/**
+ * Shrinks the batch length while the heap is under memory pressure, and grows it back once the pressure has gone.
+ * Pressure is signalled by the JVM when the heap still holds more than a fraction of its maximum after a garbage
+ * collection, using the collection usage threshold of each heap pool that supports one. While under pressure, the
+ * length is capped at the pressure length, and the pools are checked on each batch to see if the usage has dropped
+ * back below the threshold.
+ * The collection usage thresholds are shared by the whole JVM, so only one of these should be open at a time.
+ * Closing it removes the notification listener and restores the previous thresholds.
+ */
+public final class MemoryPressureBatchSizer implements BatchSizer, AutoCloseable {
+    /**
+     * Chooses the length when there's no memory pressure
+     */
+    private final BatchSizer delegate;
+    /**
+     * The largest length to use while under memory pressure
+     */
+    private final int pressureLength;
+    /**
+     * Tells whether the heap is under memory pressure
+     */
+    private final HeapPressure pressure;
+
+    /**
+     * Constructor, using a fixed length when there's no memory pressure
+     * @param bufferLength the length to use when there's no memory pressure
+     * @param pressureLength the largest length to use while under memory pressure
+     * @param usageThreshold the fraction of the maximum size of each heap pool that's still in use after a garbage
+     *                       collection for the heap to be under memory pressure, between 0 and 1
+     */
+    public MemoryPressureBatchSizer(final int bufferLength, final int pressureLength, final double usageThreshold) {
+        this(new FixedSizer(bufferLength), pressureLength, usageThreshold);
+    }
+
+    /**
+     * Constructor
+     * @param delegate chooses the length when there's no memory pressure, and is told about every batch
+     * @param pressureLength the largest length to use while under memory pressure
+     * @param usageThreshold the fraction of the maximum size of each heap pool that's still in use after a garbage
+     *                       collection for the heap to be under memory pressure, between 0 and 1
+     */
+    public MemoryPressureBatchSizer(final BatchSizer delegate, final int pressureLength, final double usageThreshold) {
+        this(delegate, checkPressureLength(pressureLength), new CollectionUsagePressure(usageThreshold));
+    }
+
+    /**
+     * Constructor
+     * @param delegate chooses the length when there's no memory pressure, and is told about every batch
+     * @param pressureLength the largest length to use while under memory pressure
+     * @param pressure tells whether the heap is under memory pressure, and is closed with this
+     */
+    MemoryPressureBatchSizer(final BatchSizer delegate, final int pressureLength, final HeapPressure pressure) {
+        this.delegate = delegate;
+        this.pressureLength = checkPressureLength(pressureLength);
+        this.pressure = pressure;
+    }
+
+    /**
+     * @return the length chosen by the delegate, capped at the pressure length while under memory pressure
+     */
+    @Override
+    public int batchLength() {
+        int length = delegate.batchLength();
+        return pressure.isUnderPressure() ? Math.min(length, pressureLength) : length;
+    }
+
+    @Override
+    public void batchProcessed(final int size, final long nanos) {
+        delegate.batchProcessed(size, nanos);
+    }
+
+    /**
+     * @return whether the heap is currently under memory pressure
+     */
+    public boolean isUnderPressure() {
+        return pressure.isUnderPressure();
+    }
+
+    /**
+     * Stop listening for memory pressure, and restore the previous collection usage thresholds
+     */
+    @Override
+    public void close() {
+        pressure.close();
+    }
+
+    /**
+     * @param pressureLength the largest length to use while under memory pressure
+     * @return the pressure length
+     * @throws IllegalArgumentException if the pressure length is less than 1
+     */
+    private static int checkPressureLength(final int pressureLength) {
+        if (pressureLength < 1) {
+            throw new IllegalArgumentException("The pressure length must be at least 1");
+        }
+        return pressureLength;
+    }
+
+    /**
+     * Sizer using the same length for every batch
+     */
+    private static final class FixedSizer implements BatchSizer {
+        /**
+         * The length of every batch
+         */
+        private final int length;
+
+        /**
+         * Constructor
+         * @param length the length of every batch
+         */
+        private FixedSizer(final int length) {
+            this.length = length;
+        }
+
+        @Override
+        public int batchLength() {
+            return length;
+        }
+
+        @Override
+        public void batchProcessed(final int size, final long nanos) {
+            //always the same length
+        }
+    }
+}
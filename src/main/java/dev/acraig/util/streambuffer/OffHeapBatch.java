@@ -0,0 +1,141 @@
+package dev.acraig.util.streambuffer;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A batch whose elements are held encoded in a direct buffer, outside of the heap. Each element is decoded when
+ * it's read, so reading the same element twice gives two equal copies. The encoded elements are held back to back,
+ * and can be written straight to a channel using {@link #buffer()}.
+ * Once the batch has been processed it should be handed back with {@link #close()} (or by using it in a
+ * try-with-resources block), after which the buffer is reused for a later batch. Using the batch after it's
+ * closed is an error.
+ * @param <T> the datatype
+ */
+public final class OffHeapBatch<T> extends AbstractList<T> implements RandomAccess, AutoCloseable {
+    /**
+     * The pool to return the buffer to
+     */
+    private final DirectBufferPool pool;
+    /**
+     * Decodes each element
+     */
+    private final ElementCodec<T> codec;
+    /**
+     * The start of each element in the buffer, followed by the end of the last element
+     */
+    private final int[] offsets;
+    /**
+     * The buffer holding the encoded elements, or null once released
+     */
+    private ByteBuffer encoded;
+
+    /**
+     * Constructor
+     * @param pool the pool to return the buffer to
+     * @param codec decodes each element
+     * @param offsets the start of each element in the buffer, followed by the end of the last element
+     * @param encoded the buffer holding the encoded elements
+     */
+    private OffHeapBatch(final DirectBufferPool pool, final ElementCodec<T> codec, final int[] offsets,
+                         final ByteBuffer encoded) {
+        this.pool = pool;
+        this.codec = codec;
+        this.offsets = offsets;
+        this.encoded = encoded;
+    }
+
+    /**
+     * Encode a batch into a buffer from the pool. If the batch doesn't fit, it's moved into successively larger
+     * buffers until it does. If an element can't be encoded, the buffer is handed back to the pool before the
+     * failure is rethrown.
+     * @param batch the elements to encode
+     * @param codec encodes each element
+     * @param pool the pool to take the buffer from
+     * @param <T> the datatype
+     * @return the encoded batch
+     */
+    static <T> OffHeapBatch<T> encode(final List<T> batch, final ElementCodec<T> codec, final DirectBufferPool pool) {
+        ByteBuffer buffer = pool.acquire();
+        try {
+            int[] offsets = new int[batch.size() + 1];
+            for (int i = 0 ; i < batch.size() ; i++) {
+                offsets[i] = buffer.position();
+                while (true) {
+                    try {
+                        codec.encode(batch.get(i), buffer);
+                        break;
+                    } catch (BufferOverflowException e) {
+                        buffer.position(offsets[i]);
+                        buffer = grow(buffer, pool);
+                    }
+                }
+            }
+            offsets[batch.size()] = buffer.position();
+            return new OffHeapBatch<>(pool, codec, offsets, buffer);
+        } catch (RuntimeException | Error e) {
+            pool.release(buffer);
+            throw e;
+        }
+    }
+
+    @Override
+    public T get(final int index) {
+        ByteBuffer buffer = buffer();
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index " + index + " is outside a batch of " + size());
+        }
+        buffer.limit(offsets[index + 1]).position(offsets[index]);
+        return codec.decode(buffer);
+    }
+
+    @Override
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * @return a read-only view of the encoded elements, from the start of the first to the end of the last
+     * @throws IllegalStateException if the batch has already been released
+     */
+    public ByteBuffer buffer() {
+        if (encoded == null) {
+            throw new IllegalStateException("Batch has already been released");
+        }
+        ByteBuffer view = encoded.asReadOnlyBuffer();
+        view.position(0).limit(offsets[offsets.length - 1]);
+        return view;
+    }
+
+    /**
+     * Release this batch's buffer back to the pool. Calling this more than once has no effect.
+     */
+    @Override
+    public void close() {
+        if (encoded != null) {
+            ByteBuffer released = encoded;
+            encoded = null;
+            pool.release(released);
+        }
+    }
+
+    /**
+     * Move the contents of a full buffer into one with twice the capacity
+     * @param full the full buffer, positioned after its contents
+     * @param pool the pool the full buffer came from
+     * @return the larger buffer, positioned after the same contents
+     */
+    private static ByteBuffer grow(final ByteBuffer full, final DirectBufferPool pool) {
+        if (full.capacity() == Integer.MAX_VALUE) {
+            throw new IllegalStateException("The batch is too large to encode into a single buffer");
+        }
+        ByteBuffer larger = ByteBuffer.allocateDirect((int) Math.min(Integer.MAX_VALUE, full.capacity() * 2L + 1));
+        full.flip();
+        larger.put(full);
+        pool.release(full);
+        return larger;
+    }
+}
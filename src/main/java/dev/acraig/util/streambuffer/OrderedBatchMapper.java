@@ -0,0 +1,186 @@
+package dev.acraig.util.streambuffer;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Maps each batch from a source with a function run concurrently on an executor, and returns the results in
+ * the original order. At most a fixed number of batches are mapped or waiting to be returned at once, so a slow
+ * batch at the front only holds back that many results rather than the whole source.
+ * The source is read by the consumer's thread, as each finished batch is taken from the front of the window.
+ * An executor created just for this mapper is shut down once the source is exhausted (letting the batches already
+ * sent finish), or once mapping stops early, so its threads don't outlive the stream even if it's never closed.
+ * @param <T> the datatype of the source elements
+ * @param <R> the datatype of the results
+ */
+final class OrderedBatchMapper<T, R> extends Spliterators.AbstractSpliterator<R> {
+    /**
+     * The batches to map
+     */
+    private final Spliterator<List<T>> source;
+    /**
+     * Maps each batch to its results
+     */
+    private final Function<? super List<T>, ? extends List<R>> mapper;
+    /**
+     * Runs the mapping of each batch
+     */
+    private final Executor executor;
+    /**
+     * The executor created for this mapper, to shut down once it's no longer needed - or null if the executor
+     * belongs to the caller
+     */
+    private final ExecutorService owned;
+    /**
+     * The maximum number of batches in the window
+     */
+    private final int parallelism;
+    /**
+     * The batches being mapped, or waiting to be returned, in source order
+     */
+    private final ArrayDeque<FutureTask<List<R>>> window;
+    /**
+     * Receives each batch read from the source
+     */
+    private final Consumer<List<T>> submitter;
+    /**
+     * The results of the batch at the front of the window that haven't been returned yet
+     */
+    private Iterator<R> current = Collections.emptyIterator();
+    /**
+     * Whether the source is exhausted
+     */
+    private boolean sourceFinished;
+
+    /**
+     * Constructor
+     * @param source the batches to map
+     * @param mapper maps each batch to its results
+     * @param parallelism the maximum number of batches being mapped or waiting to be returned at once
+     * @param executor runs the mapping of each batch
+     * @param owned the executor created for this mapper, to shut down once it's no longer needed - or null if the
+     *              executor belongs to the caller
+     */
+    OrderedBatchMapper(final Spliterator<List<T>> source, final Function<? super List<T>, ? extends List<R>> mapper,
+                       final int parallelism, final Executor executor, final ExecutorService owned) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED);
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("The parallelism must be at least 1");
+        }
+        this.source = source;
+        this.mapper = mapper;
+        this.executor = executor;
+        this.owned = owned;
+        this.parallelism = parallelism;
+        this.window = new ArrayDeque<>(parallelism);
+        this.submitter = this::submit;
+    }
+
+    /**
+     * Return the next result, waiting for the batch at the front of the window to be mapped if needed
+     * @param action the action to send the next result to
+     * @return true if there was a result to send, false if every batch has been mapped and returned
+     */
+    @Override
+    public boolean tryAdvance(final Consumer<? super R> action) {
+        while (!current.hasNext()) {
+            fill();
+            FutureTask<List<R>> next = window.poll();
+            if (next == null) {
+                return false;
+            }
+            current = await(next).iterator();
+        }
+        action.accept(current.next());
+        return true;
+    }
+
+    /**
+     * The batches are mapped concurrently already, so this doesn't split
+     * @return null
+     */
+    @Override
+    public Spliterator<R> trySplit() {
+        return null;
+    }
+
+    /**
+     * Cancel the batches that are still being mapped, stop reading the source, and shut down the executor
+     * if it was created for this mapper
+     */
+    void cancel() {
+        sourceFinished = true;
+        current = Collections.emptyIterator();
+        FutureTask<List<R>> task;
+        while ((task = window.poll()) != null) {
+            task.cancel(true);
+        }
+        if (owned != null) {
+            owned.shutdownNow();
+        }
+    }
+
+    /**
+     * Read batches from the source until the window is full, or the source is exhausted - in which case an
+     * executor created for this mapper is shut down, once the batches already sent have been mapped
+     */
+    private void fill() {
+        try {
+            while (!sourceFinished && window.size() < parallelism) {
+                sourceFinished = !source.tryAdvance(submitter);
+                if (sourceFinished && owned != null) {
+                    owned.shutdown();
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            cancel();
+            throw e;
+        }
+    }
+
+    /**
+     * Start mapping a batch, and add it to the back of the window
+     * @param batch the batch to map
+     */
+    private void submit(final List<T> batch) {
+        FutureTask<List<R>> task = new FutureTask<>(() -> mapper.apply(batch));
+        window.add(task);
+        executor.execute(task);
+    }
+
+    /**
+     * Wait for a batch to be mapped
+     * @param task the mapping of the batch
+     * @return the results of the batch
+     */
+    private List<R> await(final FutureTask<List<R>> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            task.cancel(true);
+            cancel();
+            throw new IllegalStateException("Interrupted waiting for a batch to be mapped", e);
+        } catch (ExecutionException e) {
+            cancel();
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new IllegalStateException("Failed mapping a batch", cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package dev.acraig.util.streambuffer;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.RandomAccess;
+
+/**
+ * A batch whose backing storage is borrowed from a pool. Once the batch has been processed it should be
+ * handed back with {@link #close()} (or by using it in a try-with-resources block), after which the
+ * storage is cleared and reused for a later batch. Using the batch after it's closed is an error.
+ * @param <T> the datatype
+ */
+public final class PooledBatch<T> extends AbstractList<T> implements RandomAccess, AutoCloseable {
+    /**
+     * The pool to return the storage to
+     */
+    private final BatchPool<T> pool;
+    /**
+     * The borrowed storage, or null once released
+     */
+    private ArrayList<T> elements;
+
+    /**
+     * Constructor
+     * @param pool the pool to return the storage to
+     * @param elements the borrowed storage
+     */
+    PooledBatch(final BatchPool<T> pool, final ArrayList<T> elements) {
+        this.pool = pool;
+        this.elements = elements;
+    }
+
+    @Override
+    public T get(final int index) {
+        return elements().get(index);
+    }
+
+    @Override
+    public int size() {
+        return elements().size();
+    }
+
+    @Override
+    public void add(final int index, final T element) {
+        elements().add(index, element);
+    }
+
+    /**
+     * Release this batch back to the pool. Calling this more than once has no effect.
+     */
+    @Override
+    public void close() {
+        if (elements != null) {
+            ArrayList<T> released = elements;
+            elements = null;
+            pool.release(released);
+        }
+    }
+
+    /**
+     * @return the borrowed storage
+     * @throws IllegalStateException if the batch has already been released
+     */
+    private ArrayList<T> elements() {
+        if (elements == null) {
+            throw new IllegalStateException("Batch has already been released");
+        }
+        return elements;
+    }
+}
@@ -0,0 +1,216 @@
+package dev.acraig.util.streambuffer;
+
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.function.Consumer;
+
+/**
+ * Reads a spliterator ahead of its consumer on a background task. The task fills a bounded queue, so while the
+ * consumer is processing one batch, up to the prefetch depth of following batches are being read from the source.
+ * Any failure reading the source is rethrown to the consumer, and closing the stream (or the consumer being
+ * interrupted) cancels the background task.
+ * @param <T> the datatype
+ */
+final class PrefetchingSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+    /**
+     * Queued after the last element, to mark the end of the source
+     */
+    private static final Object END = new Object();
+    /**
+     * The spliterator that's read by the background task
+     */
+    private final Spliterator<T> source;
+    /**
+     * The elements read ahead, followed by either {@link #END} or a {@link Failure}
+     */
+    private final BlockingQueue<Object> prefetched;
+    /**
+     * Runs the background task
+     */
+    private final Executor executor;
+    /**
+     * The background task, once started
+     */
+    private volatile FutureTask<Void> task;
+    /**
+     * Whether the end of the queue has been reached
+     */
+    private boolean finished;
+
+    /**
+     * Constructor
+     * @param source the spliterator to read ahead of the consumer
+     * @param prefetchDepth the maximum number of elements to read ahead
+     * @param executor runs the background task. This must run it concurrently with the consumer, rather
+     *                 than in the calling thread.
+     */
+    PrefetchingSpliterator(final Spliterator<T> source, final int prefetchDepth, final Executor executor) {
+        super(source.estimateSize(), source.characteristics() & (Spliterator.ORDERED | Spliterator.NONNULL));
+        this.source = source;
+        this.prefetched = new ArrayBlockingQueue<>(prefetchDepth);
+        this.executor = executor;
+    }
+
+    /**
+     * Wait for the next element from the background task, starting it if this is the first call
+     * @param action the action to send the next element to
+     * @return true if there was an element to send, false if the source is exhausted
+     */
+    @Override
+    public boolean tryAdvance(final Consumer<? super T> action) {
+        if (finished) {
+            return false;
+        }
+        if (task == null) {
+            start();
+        }
+        Object next = take();
+        if (next == END) {
+            finished = true;
+            return false;
+        } else if (next instanceof Failure) {
+            finished = true;
+            throw ((Failure) next).rethrow();
+        } else {
+            action.accept(cast(next));
+            return true;
+        }
+    }
+
+    /**
+     * The source is read sequentially by the background task, so this can't be split
+     * @return null
+     */
+    @Override
+    public Spliterator<T> trySplit() {
+        return null;
+    }
+
+    /**
+     * Stop the background task. It is interrupted if it's waiting on either the source or the queue.
+     */
+    void cancel() {
+        finished = true;
+        FutureTask<Void> running = task;
+        if (running != null) {
+            running.cancel(true);
+        }
+        prefetched.clear();
+    }
+
+    /**
+     * Start the background task
+     */
+    private void start() {
+        FutureTask<Void> created = new FutureTask<>(this::prefetch, null);
+        task = created;
+        executor.execute(created);
+    }
+
+    /**
+     * Body of the background task - read the whole source into the queue
+     */
+    private void prefetch() {
+        try {
+            source.forEachRemaining(this::put);
+            put(END);
+        } catch (Cancelled e) {
+            //stopped by the consumer, so nothing is waiting for the end of the queue
+        } catch (Throwable e) {
+            try {
+                put(new Failure(e));
+            } catch (Cancelled cancelled) {
+                //stopped by the consumer, so nothing is waiting for the failure
+            }
+        }
+    }
+
+    /**
+     * Add to the queue, waiting for space if it's full
+     * @param element the element or end marker
+     * @throws Cancelled if the task is cancelled while waiting
+     */
+    private void put(final Object element) {
+        try {
+            prefetched.put(element);
+        } catch (InterruptedException e) {
+            throw new Cancelled();
+        }
+        if (task.isCancelled()) {
+            throw new Cancelled();
+        }
+    }
+
+    /**
+     * Take the next entry from the queue, waiting until one is available
+     * @return the element or end marker
+     */
+    private Object take() {
+        try {
+            return prefetched.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+            throw new IllegalStateException("Interrupted waiting for the next element", e);
+        }
+    }
+
+    /**
+     * @param element an element taken from the queue
+     * @return the element
+     */
+    @SuppressWarnings("unchecked")
+    private T cast(final Object element) {
+        return (T) element;
+    }
+
+    /**
+     * Queued when reading the source fails, to be rethrown to the consumer
+     */
+    private static final class Failure {
+        /**
+         * The failure reading the source
+         */
+        private final Throwable cause;
+
+        /**
+         * Constructor
+         * @param cause the failure reading the source
+         */
+        private Failure(final Throwable cause) {
+            this.cause = cause;
+        }
+
+        /**
+         * @return the unchecked exception to throw to the consumer
+         * @throws Error if the failure was an error
+         */
+        private RuntimeException rethrow() {
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            } else if (cause instanceof RuntimeException) {
+                return (RuntimeException) cause;
+            } else {
+                return new IllegalStateException("Failed reading ahead from the source", cause);
+            }
+        }
+    }
+
+    /**
+     * Thrown inside the background task to stop reading the source once it has been cancelled
+     */
+    private static final class Cancelled extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Constructor
+         */
+        private Cancelled() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package dev.acraig.util.streambuffer;
+
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Buffer a primitive input stream into arrays, without boxing each element.
+ * The elements are read into a single working array, holding the batch being built followed by
+ * the look-ahead used to keep the minimum size. Each batch is copied out into an exactly sized array.
+ * @param <A> the primitive array type
+ */
+abstract class PrimitiveStreamBuffer<A> extends Spliterators.AbstractSpliterator<A> {
+    /**
+     * The characteristics of the source that still apply to the batches
+     */
+    private static final int KEPT_CHARACTERISTICS = Spliterator.ORDERED | Spliterator.SIZED | Spliterator.IMMUTABLE
+            | Spliterator.CONCURRENT;
+    /**
+     * The preferred length of each batch
+     */
+    final int preferredBufferLength;
+    /**
+     * The minimum size to return. If there are fewer elements than this remaining, then
+     * they will be added to the previous batch.
+     */
+    final int minSize;
+    /**
+     * The number of elements to read past the end of a batch before it can be sent
+     */
+    private final int lookahead;
+    /**
+     * The number of elements currently in the working array
+     */
+    int count;
+    /**
+     * The length of the batch currently being built
+     */
+    private int batchEnd;
+    /**
+     * Once the working array holds this many elements, the batch can be sent
+     */
+    int cutPoint;
+    /**
+     * The characteristics of this buffer
+     */
+    private final int characteristics;
+
+    /**
+     * Constructor
+     * @param source the source of the stream
+     * @param minSize the size that it will absorb extra at the end if there's only a few remaining.
+     * @param preferredBufferLength the preferred length of each batch
+     */
+    PrimitiveStreamBuffer(final Spliterator<?> source, final int minSize, final int preferredBufferLength) {
+        super(Long.MAX_VALUE, 0);
+        this.characteristics = (source.characteristics() & KEPT_CHARACTERISTICS) | Spliterator.NONNULL;
+        this.minSize = minSize;
+        this.preferredBufferLength = preferredBufferLength;
+        this.lookahead = minSize > 1 ? minSize : 0;
+        this.batchEnd = preferredBufferLength;
+        this.cutPoint = batchEnd + lookahead;
+    }
+
+    /**
+     * @return the size the working array needs to be to hold a batch and its look-ahead
+     */
+    final int capacity() {
+        return Math.max(preferredBufferLength, minSize) + lookahead;
+    }
+
+    /**
+     * Try to advance to the next batch in the stream
+     * @param action the action to send the next batch to
+     * @return true if there was a batch to send, false otherwise
+     */
+    @Override
+    public boolean tryAdvance(final Consumer<? super A> action) {
+        while (count < cutPoint && pull()) {
+            //keep reading until there's a full batch and look-ahead, or the source is exhausted
+        }
+        if (count == cutPoint) {
+            action.accept(cut(batchEnd));
+            return true;
+        } else if (count > 0) { //source exhausted - any look-ahead is absorbed into this batch
+            action.accept(cut(count));
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Send all remaining batches to the action, traversing the source in bulk
+     * @param action the action to send each batch to
+     */
+    @Override
+    public void forEachRemaining(final Consumer<? super A> action) {
+        pullRemaining(action);
+        if (count > 0) {
+            action.accept(cut(count));
+        }
+    }
+
+    /**
+     * Estimate the number of arrays remaining. If the source knows its exact size, this is exact.
+     * @return the estimated number of arrays, or {@link Long#MAX_VALUE} if it can't be determined
+     */
+    @Override
+    public long estimateSize() {
+        long sourceSize = estimateSourceSize();
+        if (sourceSize == Long.MAX_VALUE) {
+            return sourceSize;
+        }
+        return StreamBuffer.batchCount(sourceSize + count, batchEnd, preferredBufferLength, minSize);
+    }
+
+    /**
+     * The characteristics of this buffer. The splits are never reported as sized, as they aren't aligned
+     * to whole arrays - so wouldn't add up to the size before splitting.
+     * @return the characteristics
+     */
+    @Override
+    public int characteristics() {
+        return characteristics;
+    }
+
+    /**
+     * Try and split this iterator, based on however the source splits. This won't split
+     * once elements have been read ahead, as they would then be out of order.
+     * @return the split version, or null if it can't be split
+     */
+    @Override
+    public Spliterator<A> trySplit() {
+        if (count > 0 || estimateSourceSize() <= preferredBufferLength * 2L) {
+            return null;
+        }
+        return splitSource();
+    }
+
+    /**
+     * Called after each element is added during bulk traversal, to send the batch once it's ready
+     * @param action the action to send the batch to
+     */
+    final void sendIfReady(final Consumer<? super A> action) {
+        if (count == cutPoint) {
+            action.accept(cut(batchEnd));
+        }
+    }
+
+    /**
+     * Take a batch from the front of the working array, and move whatever is left to the start
+     * @param length the length of the batch
+     * @return the batch
+     */
+    private A cut(final int length) {
+        A batch = copyOf(length);
+        int remaining = count - length;
+        if (remaining > 0) {
+            System.arraycopy(workingArray(), length, workingArray(), 0, remaining);
+        }
+        count = remaining;
+        batchEnd = Math.max(preferredBufferLength, remaining);
+        cutPoint = batchEnd + lookahead;
+        return batch;
+    }
+
+    /**
+     * Read one element from the source onto the end of the working array
+     * @return true if an element was read, false if the source is exhausted
+     */
+    abstract boolean pull();
+
+    /**
+     * Read every remaining element from the source onto the end of the working array, calling
+     * {@link #sendIfReady(Consumer)} after each one
+     * @param action the action to send the batches to
+     */
+    abstract void pullRemaining(Consumer<? super A> action);
+
+    /**
+     * @return the working array
+     */
+    abstract A workingArray();
+
+    /**
+     * Copy the start of the working array
+     * @param length the number of elements to copy
+     * @return the copy
+     */
+    abstract A copyOf(int length);
+
+    /**
+     * @return the estimated number of elements left in the source
+     */
+    abstract long estimateSourceSize();
+
+    /**
+     * Split the source, and wrap the prefix in a new buffer
+     * @return the new buffer, or null if the source can't be split
+     */
+    abstract Spliterator<A> splitSource();
+}
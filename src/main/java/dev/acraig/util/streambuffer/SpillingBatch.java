@@ -0,0 +1,285 @@
+package dev.acraig.util.streambuffer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.ToLongFunction;
+
+/**
+ * A batch that holds its elements on the heap up to a memory budget, and spills the rest to a temporary file.
+ * The spilled elements are encoded as they're added, and decoded from a memory mapping of the file as they're read,
+ * so reading the same spilled element twice gives two equal copies. Once an element has been spilled, all later
+ * elements are spilled too, so the order is kept.
+ * Once the batch has been processed it should be closed (or used in a try-with-resources block), which deletes
+ * the file. Using the batch after it's closed is an error.
+ * @param <T> the datatype
+ */
+public final class SpillingBatch<T> extends AbstractList<T> implements RandomAccess, AutoCloseable {
+    /**
+     * The size of the buffer each spilled element is first encoded into
+     */
+    private static final int INITIAL_ENCODING_BYTES = 256;
+    /**
+     * The function giving the (estimated) memory used by each element, in bytes
+     */
+    private final ToLongFunction<? super T> weigher;
+    /**
+     * The memory the elements on the heap can use, in bytes
+     */
+    private final long memoryBudget;
+    /**
+     * Converts each spilled element to and from bytes
+     */
+    private final ElementCodec<T> codec;
+    /**
+     * The elements held on the heap, which come before any spilled elements
+     */
+    private final List<T> onHeap = new ArrayList<>();
+    /**
+     * The memory used by the elements on the heap, in bytes
+     */
+    private long weight;
+    /**
+     * The file the spilled elements are written to, or null if nothing has been spilled
+     */
+    private FileChannel file;
+    /**
+     * The start of each spilled element in the file, followed by the end of the last
+     */
+    private int[] offsets = new int[1];
+    /**
+     * The number of spilled elements
+     */
+    private int spilled;
+    /**
+     * Each spilled element is encoded into this, before it's written to the file
+     */
+    private ByteBuffer encoding;
+    /**
+     * The read-only mapping of the file, or null if it isn't mapped or the file has grown since
+     */
+    private MappedByteBuffer mapped;
+    /**
+     * Whether the batch has been closed
+     */
+    private boolean closed;
+
+    /**
+     * Constructor
+     * @param weigher the function giving the (estimated) memory used by each element, in bytes
+     * @param memoryBudget the memory the elements on the heap can use, in bytes
+     * @param codec converts each spilled element to and from bytes
+     */
+    private SpillingBatch(final ToLongFunction<? super T> weigher, final long memoryBudget,
+                          final ElementCodec<T> codec) {
+        this.weigher = weigher;
+        this.memoryBudget = memoryBudget;
+        this.codec = codec;
+    }
+
+    /**
+     * Add an element to the end of the batch - on the heap if it fits in the budget, otherwise in the file
+     * @param index the index to add at, which must be the end of the batch
+     * @param element the element to add
+     * @throws UnsupportedOperationException if the element isn't being added to the end
+     * @throws UncheckedIOException if the element can't be written to the file
+     */
+    @Override
+    public void add(final int index, final T element) {
+        checkOpen();
+        if (index != size()) {
+            throw new UnsupportedOperationException("Elements can only be added to the end of the batch");
+        }
+        if (spilled == 0) {
+            long elementWeight = weigher.applyAsLong(element);
+            if (elementWeight <= memoryBudget - weight) {
+                weight += elementWeight;
+                onHeap.add(element);
+                modCount++;
+                return;
+            }
+        }
+        spill(element);
+        modCount++;
+    }
+
+    @Override
+    public T get(final int index) {
+        checkOpen();
+        if (index < onHeap.size()) {
+            return onHeap.get(index);
+        }
+        int spilledIndex = index - onHeap.size();
+        if (spilledIndex >= spilled) {
+            throw new IndexOutOfBoundsException("Index " + index + " is outside a batch of " + size());
+        }
+        ByteBuffer view = mapping().duplicate();
+        view.limit(offsets[spilledIndex + 1]).position(offsets[spilledIndex]);
+        return codec.decode(view);
+    }
+
+    @Override
+    public int size() {
+        return onHeap.size() + spilled;
+    }
+
+    /**
+     * @return the number of elements that have been spilled to the file
+     */
+    public int spilledSize() {
+        return spilled;
+    }
+
+    /**
+     * Close the batch, deleting the file if anything was spilled. Calling this more than once has no effect.
+     * @throws UncheckedIOException if the file can't be closed
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        onHeap.clear();
+        mapped = null;
+        encoding = null;
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Encode an element and write it to the end of the file, creating the file if this is the first one.
+     * The file is only created once the element has been encoded, so a codec that fails doesn't leave it behind.
+     * @param element the element to spill
+     */
+    private void spill(final T element) {
+        if (encoding == null) {
+            encoding = ByteBuffer.allocate(INITIAL_ENCODING_BYTES);
+        }
+        encode(element);
+        long end = (long) offsets[spilled] + encoding.remaining();
+        if (end > Integer.MAX_VALUE) {
+            throw new IllegalStateException("The spilled elements of a batch can't exceed 2GB");
+        }
+        try {
+            if (file == null) {
+                Path path = Files.createTempFile("stream-buffer", ".spill");
+                file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.DELETE_ON_CLOSE);
+            }
+            int position = offsets[spilled];
+            while (encoding.hasRemaining()) {
+                position += file.write(encoding, position);
+            }
+            if (spilled + 1 == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[++spilled] = (int) end;
+            mapped = null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Encode an element into the encoding buffer, growing it until it fits, and flip it ready to be written
+     * @param element the element to encode
+     */
+    private void encode(final T element) {
+        while (true) {
+            encoding.clear();
+            try {
+                codec.encode(element, encoding);
+                encoding.flip();
+                return;
+            } catch (BufferOverflowException e) {
+                encoding = ByteBuffer.allocate(encoding.capacity() * 2);
+            }
+        }
+    }
+
+    /**
+     * @return the mapping of the file, mapping it again if it has grown since it was last mapped
+     */
+    private MappedByteBuffer mapping() {
+        if (mapped == null) {
+            try {
+                mapped = file.map(FileChannel.MapMode.READ_ONLY, 0, offsets[spilled]);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return mapped;
+    }
+
+    /**
+     * @throws IllegalStateException if the batch has been closed
+     */
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Batch has already been released");
+        }
+    }
+
+    /**
+     * Creates a new spilling batch for each batch of a {@link StreamBuffer}
+     * @param <T> the datatype
+     */
+    static final class Factory<T> implements BatchFactory<T> {
+        /**
+         * The function giving the (estimated) memory used by each element, in bytes
+         */
+        private final ToLongFunction<? super T> weigher;
+        /**
+         * The memory the elements on the heap of each batch can use, in bytes
+         */
+        private final long memoryBudget;
+        /**
+         * Converts each spilled element to and from bytes
+         */
+        private final ElementCodec<T> codec;
+
+        /**
+         * Constructor
+         * @param weigher the function giving the (estimated) memory used by each element, in bytes
+         * @param memoryBudget the memory the elements on the heap of each batch can use, in bytes
+         * @param codec converts each spilled element to and from bytes
+         */
+        Factory(final ToLongFunction<? super T> weigher, final long memoryBudget, final ElementCodec<T> codec) {
+            this.weigher = weigher;
+            this.memoryBudget = memoryBudget;
+            this.codec = codec;
+        }
+
+        /**
+         * Create a new batch. Its list isn't presized to the length, as that could be larger than the budget.
+         * @param length the expected length of the batch
+         * @return the batch
+         */
+        @Override
+        public SpillingBatch<T> newBatch(final int length) {
+            return new SpillingBatch<>(weigher, memoryBudget, codec);
+        }
+
+        @Override
+        public void discard(final List<T> batch) {
+            ((SpillingBatch<T>) batch).close();
+        }
+    }
+}
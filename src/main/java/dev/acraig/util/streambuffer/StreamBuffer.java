@@ -1,23 +1,43 @@
 package dev.acraig.util.streambuffer;
 
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
 import java.util.Spliterator;
 import java.util.Spliterators;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collector;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 /**
  * Buffer an input stream into a batch group.
  * This allows for applying operations on a chunk of data from a stream without having to read the entire stream.
- * All of the characteristics of the parent stream are applicable to this stream
+ * The ordering and sizing characteristics of the parent stream are applicable to this stream - if the parent
+ * knows its exact size, so will this.
  * @param <T> the datatype
  */
 public class StreamBuffer<T> extends Spliterators.AbstractSpliterator<List<T>> {
+    /**
+     * The characteristics of the source that still apply to the lists. Sorted and distinct don't, as
+     * lists have no natural order and aren't compared by their elements.
+     */
+    private static final int KEPT_CHARACTERISTICS = Spliterator.ORDERED | Spliterator.SIZED | Spliterator.IMMUTABLE
+            | Spliterator.CONCURRENT;
+    /**
+     * The listener every buffer sends its events to, alongside any listener given - recording flight recorder
+     * events if it's available (in Java 11 and later), otherwise null
+     */
+    private static final BatchListener DEFAULT_LISTENER = defaultListener();
     /**
      * The source supplier that's being used
      */
@@ -34,7 +54,36 @@ public class StreamBuffer<T> extends Spliterators.AbstractSpliterator<List<T>> {
     /**
      * Pre-buffer to allow for checking that the minimum size condition is kept
      */
-    private final BlockingQueue<T> preBuffer;
+    private final LookaheadBuffer<T> preBuffer;
+    /**
+     * Creates each batch, or null if each batch is a new {@link ArrayList}
+     */
+    private final BatchFactory<T> factory;
+    /**
+     * Chooses the length of each batch, or null if every batch has the preferred length
+     */
+    private final BatchSizer sizer;
+    /**
+     * Receives the events from forming batches and splitting, or null if nothing is listening (and flight recorder
+     * events aren't available)
+     */
+    private final BatchListener listener;
+    /**
+     * The characteristics of this buffer
+     */
+    private final int characteristics;
+    /**
+     * Whether the end of the source has been reached
+     */
+    private boolean exhausted;
+    /**
+     * The size of the last batch sent, while waiting to report it to the sizer
+     */
+    private int sentSize;
+    /**
+     * When the last batch was sent, from {@link System#nanoTime()}
+     */
+    private long sentAt;
 
     /**
      * Constructor
@@ -42,19 +91,40 @@ public class StreamBuffer<T> extends Spliterators.AbstractSpliterator<List<T>> {
      * @param minSize the size that it will absorb extra at the end if there's only a few remaining.
      *                Note - if there are fewer elements in the stream than this minimum size, then a single
      *                list will be returned of that size. It is not deemed an error.
-     * @param estimatedSize the estimated preferredBufferLength of the new Stream
      * @param preferredBufferLength the maximum buffer preferredBufferLength
+     * @param factory creates each batch, or null to use a new {@link ArrayList}
      */
-    private StreamBuffer(final Spliterator<T> source, final long estimatedSize, final int minSize, final int preferredBufferLength) {
-        super(estimatedSize, source.characteristics());
+    StreamBuffer(final Spliterator<T> source, final int minSize, final int preferredBufferLength,
+                 final BatchFactory<T> factory) {
+        this(source, minSize, preferredBufferLength, factory, null, DEFAULT_LISTENER);
+    }
+
+    /**
+     * Constructor
+     * @param source the source of the stream
+     * @param minSize the size that it will absorb extra at the end if there's only a few remaining.
+     * @param preferredBufferLength the maximum buffer preferredBufferLength, if there's no sizer
+     * @param factory creates each batch, or null to use a new {@link ArrayList}
+     * @param sizer chooses the length of each batch, or null to use the preferred buffer length
+     * @param listener receives the events from forming batches and splitting, or null if nothing is listening
+     */
+    private StreamBuffer(final Spliterator<T> source, final int minSize, final int preferredBufferLength,
+                         final BatchFactory<T> factory, final BatchSizer sizer, final BatchListener listener) {
+        super(Long.MAX_VALUE, 0);
         this.source = source;
         this.minSize = minSize;
         if (minSize > 1) {
-            preBuffer = new ArrayBlockingQueue<>(minSize);
+            preBuffer = new LookaheadBuffer<>(minSize);
         } else {
             preBuffer = null;
         }
         this.preferredBufferLength = preferredBufferLength;
+        this.factory = factory;
+        this.sizer = sizer;
+        this.listener = listener;
+        int kept = characteristics(source, minSize, preferredBufferLength);
+        //with a varying length, neither the number of lists nor the length of each is known in advance
+        this.characteristics = sizer != null ? kept & ~(Spliterator.SIZED | Spliterator.SUBSIZED) : kept;
     }
 
     /**
@@ -64,69 +134,291 @@ public class StreamBuffer<T> extends Spliterators.AbstractSpliterator<List<T>> {
      */
     @Override
     public boolean tryAdvance(final Consumer<? super List<T>> action) {
-        List<T> elements = new ArrayList<>(preferredBufferLength);
-        if (preBuffer != null) {
-            preBuffer.drainTo(elements);
+        int length = preferredBufferLength;
+        if (sizer != null) {
+            reportProcessed();
+            length = sizer.batchLength();
         }
+        long start = started();
+        List<T> elements = newBatch(length);
         boolean hasElements;
-        if (elements.size() < preferredBufferLength) { // if minSize == preferred length
-            do {
-                hasElements = source.tryAdvance(elements::add);
-            } while (hasElements && elements.size() < preferredBufferLength);
-        } else {
-            hasElements = true;
-        }
-        if (preBuffer != null) {
-            //check to see if there are any additional elements present
-            //that may result in too small a list being formed.
-            for (int i = 0 ; hasElements && i < minSize ; i++) {
-                hasElements = source.tryAdvance(preBuffer::offer);
-            }
-            if (!hasElements) { //fewer than minimum size returned
+        try {
+            if (preBuffer != null) {
                 preBuffer.drainTo(elements);
             }
+            if (elements.size() < length) { // if minSize == preferred length
+                do {
+                    hasElements = source.tryAdvance(elements::add);
+                } while (hasElements && elements.size() < length);
+            } else {
+                hasElements = true;
+            }
+            if (preBuffer != null) {
+                //check to see if there are any additional elements present
+                //that may result in too small a list being formed.
+                for (int i = 0 ; hasElements && i < minSize ; i++) {
+                    hasElements = source.tryAdvance(preBuffer::offer);
+                }
+                if (!hasElements) { //fewer than minimum size returned
+                    absorb(elements);
+                }
+            }
+        } catch (RuntimeException | Error e) { //the batch will never be sent, so discard it
+            release(elements);
+            throw e;
+        }
+        if (!elements.isEmpty()) {
+            formed(elements, length, start);
+        }
+        if (!hasElements) {
+            exhausted();
         }
         if (!elements.isEmpty()) {
+            if (sizer != null) {
+                sentSize = elements.size();
+                sentAt = System.nanoTime();
+            }
             action.accept(elements);
             return true;
         } else {
+            release(elements);
             return false;
         }
     }
 
     /**
-     * Comparator - compare the first elements in each list to each other
-     * @return the comparison
+     * Send all remaining batches to the action. Rather than pulling one element at a time from the source
+     * through {@link #tryAdvance(Consumer)}, this traverses the source once in bulk, and cuts the batches
+     * as the elements arrive. If there's a sizer, each batch is still read separately, so that its length can
+     * be chosen after the previous batch has been processed.
+     * @param action the action to send each batch to
      */
     @Override
-    public Comparator<? super List<T>> getComparator() {
-        Comparator<? super T> sourceComparator = source.getComparator();
-        return (o1, o2) -> sourceComparator.compare(o1.get(0), o2.get(0));
+    public void forEachRemaining(final Consumer<? super List<T>> action) {
+        if (sizer != null) {
+            while (tryAdvance(action)) {
+                //each batch is timed and sized individually
+            }
+            return;
+        }
+        BulkBatcher batcher = new BulkBatcher(action);
+        try {
+            source.forEachRemaining(batcher);
+            batcher.finish();
+        } catch (RuntimeException | Error e) {
+            batcher.abandon();
+            throw e;
+        }
+    }
+
+    /**
+     * Estimate the number of lists remaining. If the source knows its exact size, this is the exact number of
+     * lists that will be returned - taking into account the elements already read ahead, and any remainder
+     * that will be absorbed into the last list.
+     * @return the estimated number of lists, or {@link Long#MAX_VALUE} if it can't be determined
+     */
+    @Override
+    public long estimateSize() {
+        long sourceSize = source.estimateSize();
+        if (sourceSize == Long.MAX_VALUE) {
+            return sourceSize;
+        }
+        int held = preBuffer != null ? preBuffer.size() : 0;
+        int length = sizer != null ? sizer.batchLength() : preferredBufferLength;
+        return batchCount(sourceSize + held, Math.max(length, held), length, minSize);
+    }
+
+    /**
+     * The characteristics of this buffer. These are worked out from the source, rather than left to
+     * {@link Spliterators.AbstractSpliterator}, which would report every sized buffer as having sized splits.
+     * @return the characteristics
+     */
+    @Override
+    public int characteristics() {
+        return characteristics;
     }
 
     /**
      * Try and split this iterator. It will only succeed in splitting the iterator
      * if the source stream can also be split - as the split by this buffer will split based on
-     * however the parent split works
+     * however the parent split works.
+     * If the source knows the exact size of each split, the split is moved onto a multiple of the preferred
+     * buffer length, so that every list other than the last is full, and the lists are the same as they would be
+     * if the stream was processed sequentially. This isn't done if there's a sizer, as the lengths vary.
      * @return the split version
      */
     @Override
     public Spliterator<List<T>> trySplit() {
-        if (source.estimateSize() <= preferredBufferLength * 2) { //Don't split if we think the size will be too small
-            return null;
+        if (preBuffer != null && preBuffer.size() > 0) { //elements have been read ahead, so a prefix would be out of order
+            return splitRefused(BatchListener.SplitOutcome.REFUSED_READ_AHEAD);
+        }
+        else if (source.estimateSize() <= preferredBufferLength * 2L) { //Don't split if we think the size will be too small
+            return splitRefused(BatchListener.SplitOutcome.REFUSED_TOO_SMALL);
         }
         else {
+            boolean aligned = sizer == null && source.hasCharacteristics(Spliterator.SUBSIZED)
+                    && minSize <= preferredBufferLength;
             Spliterator<T> candidate = source.trySplit();
             if (candidate != null) {
-                return new StreamBuffer<>(candidate, estimateSize(this.preferredBufferLength, candidate), this.minSize,
-                        this.preferredBufferLength);
+                if (aligned) {
+                    candidate = align(candidate);
+                }
+                if (listener != null) {
+                    listener.splitAttempted(BatchListener.SplitOutcome.ACCEPTED);
+                }
+                return new StreamBuffer<>(candidate, this.minSize, this.preferredBufferLength, this.factory, this.sizer,
+                        this.listener);
             }
             else {
-                return null;
+                return splitRefused(BatchListener.SplitOutcome.REFUSED_BY_SOURCE);
             }
         }
     }
 
+    /**
+     * Move elements from the front of the source onto the end of a split-off prefix, until the prefix
+     * holds an exact multiple of the preferred buffer length. If that would leave fewer than the minimum size
+     * in the source, they're moved too - as they would have been absorbed into the prefix's last list.
+     * @param prefix the prefix split from the source, which must know its exact size
+     * @return the aligned prefix
+     */
+    private Spliterator<T> align(final Spliterator<T> prefix) {
+        int remainder = (int) (prefix.getExactSizeIfKnown() % preferredBufferLength);
+        long missing = remainder == 0 ? 0 : preferredBufferLength - remainder;
+        long remaining = source.getExactSizeIfKnown();
+        if (remaining - missing < minSize) {
+            missing = remaining;
+        }
+        if (missing <= 0) {
+            return prefix;
+        }
+        List<T> moved = new ArrayList<>((int) missing);
+        boolean hasElements = true;
+        for (long i = 0 ; hasElements && i < missing ; i++) {
+            hasElements = source.tryAdvance(moved::add);
+        }
+        return new AppendingSpliterator<>(prefix, moved);
+    }
+
+    /**
+     * Load the listener recording flight recorder events. This is in the Java 11 part of the multi-release jar,
+     * so won't be found on earlier versions - or if the flight recorder module isn't in the runtime.
+     * @return the listener, or null if it isn't available
+     */
+    private static BatchListener defaultListener() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return Class.forName("dev.acraig.util.streambuffer.JfrBatchListener")
+                    .asSubclass(BatchListener.class).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param listener the listener given for a buffer, or null
+     * @return a listener sending the events to both the given listener and the default one
+     */
+    private static BatchListener withDefault(final BatchListener listener) {
+        if (listener == null) {
+            return DEFAULT_LISTENER;
+        } else if (DEFAULT_LISTENER == null) {
+            return listener;
+        }
+        return new CompositeBatchListener(listener, DEFAULT_LISTENER);
+    }
+
+    /**
+     * Tell the listener that a split was refused
+     * @param outcome why the split was refused
+     * @return null, as there's no split
+     */
+    private Spliterator<List<T>> splitRefused(final BatchListener.SplitOutcome outcome) {
+        if (listener != null) {
+            listener.splitAttempted(outcome);
+        }
+        return null;
+    }
+
+    /**
+     * Tell the listener that a batch has been started
+     * @return the current time for measuring how long the batch takes to fill, or 0 if nothing is listening
+     */
+    private long started() {
+        if (listener != null) {
+            listener.batchStarted();
+            return System.nanoTime();
+        }
+        return 0;
+    }
+
+    /**
+     * Tell the listener that a batch has been formed
+     * @param batch the batch
+     * @param length the preferred length of the batch
+     * @param start when the batch was started, from {@link #started()}
+     */
+    private void formed(final List<T> batch, final int length, final long start) {
+        if (listener != null) {
+            listener.batchFormed(batch.size(), length, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Add whatever has been read ahead to the end of the batch, as the source has run out before there
+     * were enough elements for another batch
+     * @param batch the last batch
+     */
+    private void absorb(final List<T> batch) {
+        int absorbed = preBuffer.size();
+        boolean absorbing = absorbed > 0 && !batch.isEmpty();
+        preBuffer.drainTo(batch);
+        if (absorbing && listener != null) {
+            listener.remainderAbsorbed(absorbed);
+        }
+    }
+
+    /**
+     * Tell the listener that the end of the source has been reached, if it hasn't been told already
+     */
+    private void exhausted() {
+        if (!exhausted) {
+            exhausted = true;
+            if (listener != null) {
+                listener.sourceExhausted();
+            }
+        }
+    }
+
+    /**
+     * Tell the sizer how long the last batch sent took to process, if it hasn't been told already
+     */
+    private void reportProcessed() {
+        if (sentSize > 0) {
+            sizer.batchProcessed(sentSize, System.nanoTime() - sentAt);
+            sentSize = 0;
+        }
+    }
+
+    /**
+     * Create a new, empty batch
+     * @param length the expected length of the batch
+     * @return the batch
+     */
+    private List<T> newBatch(final int length) {
+        return factory != null ? factory.newBatch(length) : new ArrayList<>(length);
+    }
+
+    /**
+     * Release a batch that was never sent, if it came from the factory
+     * @param batch the batch
+     */
+    private void release(final List<T> batch) {
+        if (factory != null) {
+            factory.discard(batch);
+        }
+    }
+
     /**
      * Convert this buffer into a stream
      * @return the stream representation of this buffer
@@ -144,24 +436,577 @@ public class StreamBuffer<T> extends Spliterators.AbstractSpliterator<List<T>> {
      * @return the new stream of buffered elements.
      */
     public static <V> Stream<List<V>> buffer(Stream<V> input, int minSize, int bufferLength) {
-        Spliterator<V> spliterator = input.spliterator();
-        long estimatedSize = estimateSize(bufferLength, spliterator);
-        return new StreamBuffer<>(spliterator, estimatedSize, minSize, bufferLength).stream();
+        return new StreamBuffer<>(input.spliterator(), minSize, bufferLength, null).stream();
+    }
+
+    /**
+     * Factory method to generate a buffer from an input source, where the length of each list is chosen by a sizer
+     * as the stream is processed - for example, an {@link AdaptiveBatchSizer} to keep each list taking a target
+     * time to process. The lengths aren't known in advance, so the stream isn't sized.
+     * @param input the input to read through
+     * @param minSize the minimum size of the lists to return (except for the first list).
+     * @param sizer chooses the length of each list
+     * @param <V> the object type
+     * @return the new stream of buffered elements.
+     */
+    public static <V> Stream<List<V>> buffer(Stream<V> input, int minSize, BatchSizer sizer) {
+        return buffer(input, minSize, sizer, null);
+    }
+
+    /**
+     * Factory method to generate a buffer from an input source, sending the events from forming each list and
+     * splitting the stream to a listener - for example, a {@link BatchStatistics} to count them.
+     * @param input the input to read through
+     * @param minSize the minimum size of the lists to return (except for the first list).
+     * @param bufferLength the maximum preferred buffer length of the buffer
+     * @param listener receives the events from forming each list and splitting the stream, as well as the default
+     *                 flight recorder events
+     * @param <V> the object type
+     * @return the new stream of buffered elements.
+     */
+    public static <V> Stream<List<V>> buffer(Stream<V> input, int minSize, int bufferLength, BatchListener listener) {
+        return new StreamBuffer<>(input.spliterator(), minSize, bufferLength, null, null, withDefault(listener))
+                .stream();
+    }
+
+    /**
+     * Factory method to generate a buffer from an input source, where the length of each list is chosen by a sizer,
+     * sending the events from forming each list and splitting the stream to a listener.
+     * @param input the input to read through
+     * @param minSize the minimum size of the lists to return (except for the first list).
+     * @param sizer chooses the length of each list
+     * @param listener receives the events from forming each list and splitting the stream, as well as the default
+     *                 flight recorder events - or null for just the default
+     * @param <V> the object type
+     * @return the new stream of buffered elements.
+     */
+    public static <V> Stream<List<V>> buffer(Stream<V> input, int minSize, BatchSizer sizer, BatchListener listener) {
+        return new StreamBuffer<>(input.spliterator(), minSize, sizer.batchLength(), null, sizer, withDefault(listener))
+                .stream();
+    }
+
+    /**
+     * Factory method to generate a buffer from an input source, publishing its statistics as a
+     * {@link StreamBufferMXBean} on the platform MBean server, named
+     * {@code dev.acraig.streambuffer:type=StreamBuffer,name="<name>"}. The MBean is unregistered once the source has
+     * been read to the end, or when the stream is closed - so a stream that may not be read to the end (because
+     * it fails or is short-circuited) should be used in a try-with-resources block. The default flight recorder
+     * events are still recorded.
+     * @param input the input to read through
+     * @param minSize the minimum size of the lists to return (except for the first list).
+     * @param bufferLength the maximum preferred buffer length of the buffer
+     * @param name the name of the buffer, which must be unique among the open monitored buffers
+     * @param <V> the object type
+     * @return the new stream of buffered elements.
+     * @throws IllegalArgumentException if a buffer with the same name is still registered
+     */
+    public static <V> Stream<List<V>> bufferMonitored(Stream<V> input, int minSize, int bufferLength, String name) {
+        StreamBufferMonitor monitor = new StreamBufferMonitor(name, null, bufferLength);
+        return buffer(input, minSize, bufferLength, monitor).onClose(monitor::close);
+    }
+
+    /**
+     * Factory method to generate a buffer from an input source, where the length of each list is chosen by a sizer,
+     * publishing its statistics (including the sizer's current length) as a {@link StreamBufferMXBean} until the
+     * source has been read to the end or the stream is closed.
+     * @param input the input to read through
+     * @param minSize the minimum size of the lists to return (except for the first list).
+     * @param sizer chooses the length of each list
+     * @param name the name of the buffer, which must be unique among the open monitored buffers
+     * @param <V> the object type
+     * @return the new stream of buffered elements.
+     * @throws IllegalArgumentException if a buffer with the same name is still registered
+     * @see #bufferMonitored(Stream, int, int, String)
+     */
+    public static <V> Stream<List<V>> bufferMonitored(Stream<V> input, int minSize, BatchSizer sizer, String name) {
+        StreamBufferMonitor monitor = new StreamBufferMonitor(name, sizer, sizer.batchLength());
+        return buffer(input, minSize, sizer, monitor).onClose(monitor::close);
     }
 
     /**
-     * Estimate the bufferLength of this spliterator.  This uses the information
-     * from the source spliterator, and divides it by the preferred buffer length.
-     * @param bufferLength the length of the buffer that will be used
-     * @param spliterator the spliterator being used
-     * @return the estimated preferredBufferLength, or {@link Long#MAX_VALUE} if it can't be determined
+     * Factory method to generate a buffer from an input source, where each batch is taken from a bounded pool.
+     * Each batch must be released with {@link PooledBatch#close()} once it has been processed, so that its
+     * storage can be reused for a later batch rather than becoming garbage.
+     * @param input the input to read through
+     * @param minSize the minimum size of the lists to return (except for the first list).
+     * @param bufferLength the maximum preferred buffer length of the buffer
+     * @param poolSize the maximum number of released batches to keep for reuse
+     * @param <V> the object type
+     * @return the new stream of buffered elements.
      */
-    private static long estimateSize(final int bufferLength, final Spliterator<?> spliterator) {
-        long estimatedSize = spliterator.estimateSize();
-        if (estimatedSize != Long.MAX_VALUE) {
-            estimatedSize = estimatedSize / bufferLength;
+    public static <V> Stream<PooledBatch<V>> bufferPooled(Stream<V> input, int minSize, int bufferLength, int poolSize) {
+        BatchPool<V> pool = new BatchPool<>(poolSize, bufferLength);
+        return new StreamBuffer<>(input.spliterator(), minSize, bufferLength, pool).stream()
+                .map(batch -> (PooledBatch<V>) batch);
+    }
+
+    /**
+     * Factory method to generate a buffer from an input source, where each batch is encoded into a direct buffer
+     * outside of the heap, and decoded as it's read. The direct buffers are taken from a bounded pool - each batch
+     * must be released with {@link OffHeapBatch#close()} once it has been processed, so that its buffer can be reused.
+     * A batch that doesn't fit in a pooled buffer is moved into a larger one, which isn't kept once released.
+     * @param input the input to read through
+     * @param minSize the minimum size of the batches to return (except for the first batch).
+     * @param bufferLength the maximum preferred buffer length of the buffer
+     * @param codec converts each element to and from bytes
+     * @param bufferBytes the capacity of each pooled buffer, in bytes
+     * @param poolSize the maximum number of idle buffers to keep for reuse
+     * @param <V> the object type
+     * @return the new stream of off-heap batches.
+     */
+    public static <V> Stream<OffHeapBatch<V>> bufferOffHeap(Stream<V> input, int minSize, int bufferLength,
+                                                            ElementCodec<V> codec, int bufferBytes, int poolSize) {
+        BatchPool<V> lists = new BatchPool<>(1, bufferLength);
+        DirectBufferPool buffers = new DirectBufferPool(poolSize, bufferBytes);
+        return new StreamBuffer<>(input.spliterator(), minSize, bufferLength, lists).stream()
+                .map(batch -> {
+                    try (PooledBatch<V> elements = (PooledBatch<V>) batch) {
+                        return OffHeapBatch.encode(elements, codec, buffers);
+                    }
+                });
+    }
+
+    /**
+     * Factory method to generate a buffer from an input source, where the memory used by each batch is bounded.
+     * Elements are held on the heap until the batch reaches the memory budget, and the rest of the batch is
+     * encoded into a temporary file, which is read through a memory mapping. Each batch must be closed once it
+     * has been processed, to delete its file. A failure writing the file is thrown as an
+     * {@link java.io.UncheckedIOException}.
+     * @param input the input to read through
+     * @param minSize the minimum size of the batches to return (except for the first batch).
+     * @param bufferLength the maximum preferred buffer length of the buffer
+     * @param weigher the function giving the (estimated) memory used by each element, in bytes
+     * @param memoryBudget the memory the elements on the heap of each batch can use, in bytes
+     * @param codec converts each spilled element to and from bytes
+     * @param <V> the object type
+     * @return the new stream of batches.
+     */
+    public static <V> Stream<SpillingBatch<V>> bufferSpilling(Stream<V> input, int minSize, int bufferLength,
+                                                              ToLongFunction<? super V> weigher, long memoryBudget,
+                                                              ElementCodec<V> codec) {
+        SpillingBatch.Factory<V> factory = new SpillingBatch.Factory<>(weigher, memoryBudget, codec);
+        return new StreamBuffer<>(input.spliterator(), minSize, bufferLength, factory).stream()
+                .map(batch -> (SpillingBatch<V>) batch);
+    }
+
+    /**
+     * Factory method to generate a buffer from an input source, where the following lists are read from the
+     * source on a background thread while the current list is being processed.
+     * Closing the stream stops the background thread, and any failure reading the source is rethrown
+     * from the stream.
+     * @param input the input to read through
+     * @param minSize the minimum size of the lists to return (except for the first list).
+     * @param bufferLength the maximum preferred buffer length of the buffer
+     * @param prefetchDepth the maximum number of lists to read ahead
+     * @param <V> the object type
+     * @return the new stream of buffered elements.
+     */
+    public static <V> Stream<List<V>> bufferAsync(Stream<V> input, int minSize, int bufferLength, int prefetchDepth) {
+        return bufferAsync(input, minSize, bufferLength, prefetchDepth, task -> {
+            Thread thread = new Thread(task, "stream-buffer-prefetch");
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    /**
+     * Factory method to generate a buffer from an input source, where the following lists are read from the
+     * source by a task on the executor while the current list is being processed.
+     * Closing the stream cancels the task, and any failure reading the source is rethrown from the stream.
+     * @param input the input to read through
+     * @param minSize the minimum size of the lists to return (except for the first list).
+     * @param bufferLength the maximum preferred buffer length of the buffer
+     * @param prefetchDepth the maximum number of lists to read ahead
+     * @param executor runs the task reading the source. This must run the task concurrently with the caller.
+     * @param <V> the object type
+     * @return the new stream of buffered elements.
+     */
+    public static <V> Stream<List<V>> bufferAsync(Stream<V> input, int minSize, int bufferLength, int prefetchDepth,
+                                                  Executor executor) {
+        PrefetchingSpliterator<List<V>> prefetching = new PrefetchingSpliterator<>(
+                new StreamBuffer<>(input.spliterator(), minSize, bufferLength, null), prefetchDepth, executor);
+        return StreamSupport.stream(prefetching, false).onClose(prefetching::cancel);
+    }
+
+    /**
+     * Buffer an input source, and send each list to the consumer on its own thread, with at most
+     * {@code maxConcurrency} lists being processed at once. Virtual threads are used where the JVM has them,
+     * otherwise a pool of {@code maxConcurrency} threads. This returns once every list has been processed.
+     * If the consumer fails, no further lists are sent, and the first failure is rethrown.
+     * @param input the input to read through
+     * @param minSize the minimum size of the lists to return (except for the first list).
+     * @param bufferLength the maximum preferred buffer length of the buffer
+     * @param consumer receives each list. This may be called concurrently.
+     * @param maxConcurrency the maximum number of lists being processed at once
+     * @param <V> the object type
+     */
+    public static <V> void processBatches(Stream<V> input, int minSize, int bufferLength, Consumer<? super List<V>> consumer,
+                                          int maxConcurrency) {
+        BatchProcessor<V> processor = new BatchProcessor<>(consumer, maxConcurrency);
+        try (Stream<List<V>> batches = buffer(input, minSize, bufferLength)) {
+            processor.process(batches.iterator());
+        }
+    }
+
+    /**
+     * Buffer an input source, and send each list to the consumer in a task on the executor, with at most
+     * {@code maxConcurrency} lists being processed at once. This returns once every list has been processed.
+     * If the consumer fails, no further lists are sent, and the first failure is rethrown.
+     * @param input the input to read through
+     * @param minSize the minimum size of the lists to return (except for the first list).
+     * @param bufferLength the maximum preferred buffer length of the buffer
+     * @param consumer receives each list. This may be called concurrently.
+     * @param maxConcurrency the maximum number of lists being processed at once
+     * @param executor runs each task
+     * @param <V> the object type
+     */
+    public static <V> void processBatches(Stream<V> input, int minSize, int bufferLength, Consumer<? super List<V>> consumer,
+                                          int maxConcurrency, Executor executor) {
+        BatchProcessor<V> processor = new BatchProcessor<>(consumer, maxConcurrency);
+        try (Stream<List<V>> batches = buffer(input, minSize, bufferLength)) {
+            processor.process(batches.iterator(), executor);
+        }
+    }
+
+    /**
+     * Buffer an input source, and map each list with a function run on a pool of {@code parallelism} threads.
+     * The results are returned lazily in the original order, with at most {@code parallelism} lists being mapped
+     * or waiting to be returned at once. The pool is shut down once the input has been read to the end, or mapping
+     * fails or the stream is closed, so the stream doesn't need to be closed to release the threads.
+     * @param input the input to read through
+     * @param minSize the minimum size of the lists to map (except for the first list).
+     * @param bufferLength the maximum preferred buffer length of the buffer
+     * @param mapper maps each list to its results. This may be called concurrently.
+     * @param parallelism the maximum number of lists being mapped at once
+     * @param <V> the object type
+     * @param <R> the result type
+     * @return the stream of the results
+     */
+    public static <V, R> Stream<R> mapBatches(Stream<V> input, int minSize, int bufferLength,
+                                              Function<? super List<V>, ? extends List<R>> mapper, int parallelism) {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, task -> {
+            Thread thread = new Thread(task, "stream-buffer-map");
+            thread.setDaemon(true);
+            return thread;
+        });
+        return mapBatches(input, minSize, bufferLength, mapper, parallelism, executor, executor);
+    }
+
+    /**
+     * Buffer an input source, and map each list with a function run on the executor.
+     * The results are returned lazily in the original order, with at most {@code parallelism} lists being mapped
+     * or waiting to be returned at once. Closing the stream cancels the lists still being mapped.
+     * @param input the input to read through
+     * @param minSize the minimum size of the lists to map (except for the first list).
+     * @param bufferLength the maximum preferred buffer length of the buffer
+     * @param mapper maps each list to its results. This may be called concurrently.
+     * @param parallelism the maximum number of lists being mapped at once
+     * @param executor runs the mapping of each list
+     * @param <V> the object type
+     * @param <R> the result type
+     * @return the stream of the results
+     */
+    public static <V, R> Stream<R> mapBatches(Stream<V> input, int minSize, int bufferLength,
+                                              Function<? super List<V>, ? extends List<R>> mapper, int parallelism,
+                                              Executor executor) {
+        return mapBatches(input, minSize, bufferLength, mapper, parallelism, executor, null);
+    }
+
+    /**
+     * Buffer an input source, and map each list with a function run on the executor
+     * @param input the input to read through
+     * @param minSize the minimum size of the lists to map (except for the first list).
+     * @param bufferLength the maximum preferred buffer length of the buffer
+     * @param mapper maps each list to its results. This may be called concurrently.
+     * @param parallelism the maximum number of lists being mapped at once
+     * @param executor runs the mapping of each list
+     * @param owned the executor created for this stream, to shut down once it's no longer needed - or null if the
+     *              executor belongs to the caller
+     * @param <V> the object type
+     * @param <R> the result type
+     * @return the stream of the results
+     */
+    private static <V, R> Stream<R> mapBatches(Stream<V> input, int minSize, int bufferLength,
+                                               Function<? super List<V>, ? extends List<R>> mapper, int parallelism,
+                                               Executor executor, ExecutorService owned) {
+        OrderedBatchMapper<V, R> batchMapper = new OrderedBatchMapper<>(
+                new StreamBuffer<>(input.spliterator(), minSize, bufferLength, null), mapper, parallelism, executor,
+                owned);
+        return StreamSupport.stream(batchMapper, false).onClose(batchMapper::cancel);
+    }
+
+    /**
+     * Buffer an input source, map each list with a function returning one result for each element (for example,
+     * a bulk lookup), and return the results directly from each list of results. As there is a result for each
+     * element, the size of the input is kept, and a parallel input splits the same way.
+     * @param input the input to read through
+     * @param bufferLength the maximum preferred buffer length of the buffer
+     * @param mapper maps each list to a list of results of the same size, in the same order
+     * @param <V> the object type
+     * @param <R> the result type
+     * @return the stream of the results
+     * @throws IllegalStateException from the stream, if the mapper returns a different number of results
+     */
+    public static <V, R> Stream<R> mapBatched(Stream<V> input, int bufferLength,
+                                              Function<? super List<V>, ? extends List<R>> mapper) {
+        return StreamSupport.stream(new MappedBatchSpliterator<>(input.spliterator(), bufferLength, mapper),
+                input.isParallel());
+    }
+
+    /**
+     * A collector that sends the elements to the consumer in lists as they are collected, rather than holding
+     * them all. The lists are cut in the same places as {@link #buffer(Stream, int, int)} would.
+     * When collecting a parallel stream, each thread sends its own lists, so the consumer may be called
+     * concurrently, and the elements left over by each thread are combined under the same minimum size rule.
+     * @param minSize the minimum size of the lists to send (except for the first list).
+     * @param bufferLength the maximum preferred buffer length of the buffer
+     * @param consumer receives each list
+     * @param <V> the object type
+     * @return the collector, whose result is the number of lists sent
+     */
+    public static <V> Collector<V, ?, Long> batching(int minSize, int bufferLength, Consumer<? super List<V>> consumer) {
+        return Collector.<V, BatchingSink<V>, Long>of(() -> new BatchingSink<>(consumer, minSize, bufferLength),
+                BatchingSink::add, BatchingSink::combine, BatchingSink::finish);
+    }
+
+    /**
+     * Factory method to generate a buffer from an input source, where the lists are cut by the total weight
+     * of their elements rather than by how many there are. A list is cut before the element that would take it
+     * over the maximum weight, unless that element is heavier than the maximum on its own - in which case it is
+     * a list of its own. Each split of a parallel stream can cut a list short, so the source isn't split into
+     * pieces of fewer than a couple of thousand elements.
+     * @param input the input to read through
+     * @param minSize the minimum size of the lists to return (except for the first list).
+     * @param weigher the function giving the (non-negative) weight of each element
+     * @param maxWeight the maximum total weight of a list
+     * @param <V> the object type
+     * @return the new stream of buffered elements.
+     */
+    public static <V> Stream<List<V>> bufferByWeight(Stream<V> input, int minSize, ToLongFunction<? super V> weigher,
+                                                     long maxWeight) {
+        return StreamSupport.stream(new BoundaryStreamBuffer<>(input.spliterator(), new WeightBoundary<>(weigher, maxWeight),
+                minSize), false);
+    }
+
+    /**
+     * Factory method to generate a buffer from an input source, with a list for each run of consecutive elements
+     * with equal keys (compared with {@link Object#equals(Object)}). A run longer than the maximum length is cut into
+     * several lists. For a source sorted by the key, this gives one list for each key.
+     * The stream isn't split for parallel processing, as a split could fall in the middle of a run.
+     * @param input the input to read through
+     * @param key the function giving the key of each element
+     * @param maxLength the maximum length of a list
+     * @param <V> the object type
+     * @return the new stream of buffered elements.
+     */
+    public static <V> Stream<List<V>> bufferBy(Stream<V> input, Function<? super V, ?> key, int maxLength) {
+        return StreamSupport.stream(new BoundaryStreamBuffer<>(input.spliterator(), new KeyBoundary<>(key, maxLength), 1),
+                false);
+    }
+
+    /**
+     * Factory method to generate windows over an input source, each of {@code size} elements, starting {@code step}
+     * elements after the start of the last. Overlapping windows share their storage rather than being copied, and
+     * each window is an immutable view. Only full windows are returned.
+     * The stream isn't split for parallel processing.
+     * @param input the input to read through
+     * @param size the number of elements in each window
+     * @param step the number of elements from the start of one window to the start of the next
+     * @param <V> the object type
+     * @return the new stream of windows.
+     */
+    public static <V> Stream<List<V>> window(Stream<V> input, int size, int step) {
+        return StreamSupport.stream(new WindowSpliterator<>(input.spliterator(), size, step), false);
+    }
+
+    /**
+     * Factory method to generate a buffer from a blocking queue, where a batch is sent once it is full or once
+     * the maximum linger time has passed since its first element arrived, whichever comes first.
+     * The stream ends when the end of stream element is taken from the queue.
+     * @param queue the queue to read from
+     * @param endOfStream the element (compared by identity) that marks the end of the stream
+     * @param minSize the minimum size of the lists to return if the stream ends just after a full list
+     * @param bufferLength the maximum preferred buffer length of the buffer
+     * @param maxLinger the maximum time to wait for a batch to fill after its first element arrives
+     * @param unit the unit of the maximum linger time
+     * @param <V> the object type
+     * @return the new stream of buffered elements.
+     */
+    public static <V> Stream<List<V>> buffer(BlockingQueue<V> queue, V endOfStream, int minSize, int bufferLength,
+                                             long maxLinger, TimeUnit unit) {
+        return StreamSupport.stream(new LingeringBuffer<>(queue, endOfStream, minSize, bufferLength, unit.toNanos(maxLinger)),
+                false);
+    }
+
+    /**
+     * Factory method to generate a buffer from a primitive input source, without boxing the elements
+     * @param input the input to read through
+     * @param minSize the minimum size of the arrays to return (except for the first array).
+     * @param bufferLength the maximum preferred buffer length of the buffer
+     * @return the new stream of buffered elements.
+     */
+    public static Stream<int[]> buffer(IntStream input, int minSize, int bufferLength) {
+        return StreamSupport.stream(new IntStreamBuffer(input.spliterator(), minSize, bufferLength), false);
+    }
+
+    /**
+     * Factory method to generate a buffer from a primitive input source, without boxing the elements
+     * @param input the input to read through
+     * @param minSize the minimum size of the arrays to return (except for the first array).
+     * @param bufferLength the maximum preferred buffer length of the buffer
+     * @return the new stream of buffered elements.
+     */
+    public static Stream<long[]> buffer(LongStream input, int minSize, int bufferLength) {
+        return StreamSupport.stream(new LongStreamBuffer(input.spliterator(), minSize, bufferLength), false);
+    }
+
+    /**
+     * Factory method to generate a buffer from a primitive input source, without boxing the elements
+     * @param input the input to read through
+     * @param minSize the minimum size of the arrays to return (except for the first array).
+     * @param bufferLength the maximum preferred buffer length of the buffer
+     * @return the new stream of buffered elements.
+     */
+    public static Stream<double[]> buffer(DoubleStream input, int minSize, int bufferLength) {
+        return StreamSupport.stream(new DoubleStreamBuffer(input.spliterator(), minSize, bufferLength), false);
+    }
+
+    /**
+     * Work out the characteristics of the buffer from those of its source. The splits are only sized
+     * if they are aligned to whole lists - otherwise they wouldn't add up to the size before splitting.
+     * @param source the source spliterator
+     * @param minSize the minimum size of the lists
+     * @param bufferLength the preferred buffer length
+     * @return the characteristics
+     */
+    private static int characteristics(final Spliterator<?> source, final int minSize, final int bufferLength) {
+        int characteristics = (source.characteristics() & KEPT_CHARACTERISTICS) | Spliterator.NONNULL;
+        if (source.hasCharacteristics(Spliterator.SUBSIZED) && minSize <= bufferLength) {
+            characteristics |= Spliterator.SUBSIZED;
+        }
+        return characteristics;
+    }
+
+    /**
+     * Count the number of lists a number of elements will be buffered into. After the first list, each list
+     * takes the larger of the preferred length and the minimum size (as the minimum size is read ahead), and
+     * a list is only cut if at least the minimum size is left after it.
+     * @param elements the number of elements
+     * @param firstLength the length of the first list
+     * @param bufferLength the preferred buffer length
+     * @param minSize the minimum size of the lists
+     * @return the number of lists
+     */
+    static long batchCount(final long elements, final int firstLength, final int bufferLength, final int minSize) {
+        int lookahead = Math.max(minSize, 1);
+        if (elements == 0) {
+            return 0;
+        }
+        else if (elements - firstLength < lookahead) { //everything fits into (or is absorbed into) the first list
+            return 1;
+        }
+        else {
+            return 2 + (elements - firstLength - lookahead) / Math.max(bufferLength, minSize);
         }
-        return estimatedSize;
     }
 
+    /**
+     * Element consumer used for bulk traversal. This cuts the batches in the same places as
+     * {@link #tryAdvance(Consumer)} would - once a batch is full, elements go into the pre-buffer
+     * until either it holds the minimum size (and the batch can be sent), or the source runs out
+     * (and the pre-buffer is absorbed into the batch).
+     */
+    private final class BulkBatcher implements Consumer<T> {
+        /**
+         * The action to send each completed batch to
+         */
+        private final Consumer<? super List<T>> action;
+        /**
+         * The batch currently being filled, or null while a batch is being sent
+         */
+        private List<T> elements;
+        /**
+         * When the current batch was started, from {@link #started()}
+         */
+        private long start;
+
+        /**
+         * Constructor
+         * @param action the action to send each completed batch to
+         */
+        private BulkBatcher(final Consumer<? super List<T>> action) {
+            this.action = action;
+            this.elements = nextBatch();
+        }
+
+        @Override
+        public void accept(final T element) {
+            if (elements.size() < preferredBufferLength) {
+                elements.add(element);
+                if (preBuffer == null && elements.size() == preferredBufferLength) {
+                    send();
+                }
+            } else {
+                preBuffer.offer(element);
+                if (preBuffer.size() == minSize) { //enough remaining that the full batch can go
+                    send();
+                }
+            }
+        }
+
+        /**
+         * Called once the source is exhausted to send the final batch
+         */
+        private void finish() {
+            if (preBuffer != null) { //fewer than minimum size remaining
+                absorb(elements);
+            }
+            List<T> last = elements;
+            elements = null;
+            if (!last.isEmpty()) {
+                formed(last, preferredBufferLength, start);
+            }
+            exhausted();
+            if (!last.isEmpty()) {
+                action.accept(last);
+            } else {
+                release(last);
+            }
+        }
+
+        /**
+         * Send the current batch, and start the next one
+         */
+        private void send() {
+            List<T> full = elements;
+            elements = null;
+            formed(full, preferredBufferLength, start);
+            action.accept(full);
+            elements = nextBatch();
+        }
+
+        /**
+         * Called if reading the source fails, to discard the batch being filled - a batch that has already been
+         * sent belongs to the action
+         */
+        private void abandon() {
+            if (elements != null) {
+                release(elements);
+                elements = null;
+            }
+        }
+
+        /**
+         * Start a new batch, including anything that was held back in the pre-buffer
+         * @return the new batch
+         */
+        private List<T> nextBatch() {
+            start = started();
+            List<T> batch = newBatch(preferredBufferLength);
+            if (preBuffer != null) {
+                preBuffer.drainTo(batch);
+            }
+            return batch;
+        }
+    }
 }
@@ -0,0 +1,49 @@
+package dev.acraig.util.streambuffer;
+
+/**
+ * The management interface of a named buffer, published by
+ * {@link StreamBuffer#bufferMonitored(java.util.stream.Stream, int, int, String)}. Comparing the time spent filling
+ * batches with the time the job has been running shows whether it's held up reading the source, or processing
+ * the batches.
+ */
+public interface StreamBufferMXBean {
+    /**
+     * @return the number of batches emitted
+     */
+    long getBatches();
+
+    /**
+     * @return the number of elements in all the batches emitted
+     */
+    long getElements();
+
+    /**
+     * @return the average number of elements in a batch, or 0 if no batches have been emitted
+     */
+    double getAverageBatchSize();
+
+    /**
+     * @return the largest number of elements in a batch
+     */
+    long getMaxBatchSize();
+
+    /**
+     * @return the length the next batch will be filled to - chosen by the sizer, if there is one, otherwise fixed
+     */
+    int getCurrentBatchLength();
+
+    /**
+     * @return the total time spent blocked reading batches from the source, in nanoseconds
+     */
+    long getSourceBlockedNanos();
+
+    /**
+     * @return the number of times the buffer was split for parallel processing
+     */
+    long getSplitsAccepted();
+
+    /**
+     * @return the number of times the buffer was asked to split, but didn't
+     */
+    long getSplitsRefused();
+}
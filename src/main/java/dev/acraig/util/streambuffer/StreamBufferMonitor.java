@@ -0,0 +1,172 @@
+package dev.acraig.util.streambuffer;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes the statistics of a named buffer as an MBean on the platform MBean server, until the source is
+ * exhausted or it's closed. For a parallel stream, the source is only exhausted once every buffer split off
+ * has reached the end of its part.
+ */
+final class StreamBufferMonitor implements StreamBufferMXBean, BatchListener, AutoCloseable {
+    /**
+     * The domain of the MBean names
+     */
+    private static final String DOMAIN = "dev.acraig.streambuffer";
+    /**
+     * Counts the events from the buffer
+     */
+    private final BatchStatistics statistics = new BatchStatistics();
+    /**
+     * Chooses the length of each batch, or null if it's fixed
+     */
+    private final BatchSizer sizer;
+    /**
+     * The length of each batch, if there's no sizer
+     */
+    private final int bufferLength;
+    /**
+     * The name the MBean is registered under
+     */
+    private final ObjectName objectName;
+    /**
+     * The number of buffers (the original and those split off) that haven't reached the end of their source
+     */
+    private final AtomicInteger unfinished = new AtomicInteger(1);
+    /**
+     * Whether the MBean is still registered by this monitor
+     */
+    private final AtomicBoolean registered = new AtomicBoolean();
+
+    /**
+     * Constructor, registering the MBean
+     * @param name the name of the buffer
+     * @param sizer chooses the length of each batch, or null if it's fixed
+     * @param bufferLength the length of each batch, if there's no sizer
+     * @throws IllegalArgumentException if a buffer with the same name is already registered
+     * @throws IllegalStateException if the MBean can't be registered
+     */
+    StreamBufferMonitor(final String name, final BatchSizer sizer, final int bufferLength) {
+        this.sizer = sizer;
+        this.bufferLength = bufferLength;
+        try {
+            this.objectName = objectName(name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            registered.set(true);
+        } catch (InstanceAlreadyExistsException e) {
+            throw new IllegalArgumentException("A buffer named " + name + " is already registered", e);
+        } catch (JMException e) {
+            throw new IllegalStateException("Unable to register buffer " + name, e);
+        }
+    }
+
+    /**
+     * @param name the name of a buffer
+     * @return the name its MBean is registered under
+     * @throws JMException if the name isn't valid
+     */
+    static ObjectName objectName(final String name) throws JMException {
+        return new ObjectName(DOMAIN + ":type=StreamBuffer,name=" + ObjectName.quote(name));
+    }
+
+    @Override
+    public void batchFormed(final int size, final int preferredLength, final long fillNanos) {
+        statistics.batchFormed(size, preferredLength, fillNanos);
+    }
+
+    @Override
+    public void remainderAbsorbed(final int absorbed) {
+        statistics.remainderAbsorbed(absorbed);
+    }
+
+    @Override
+    public void splitAttempted(final SplitOutcome outcome) {
+        if (outcome == SplitOutcome.ACCEPTED) {
+            unfinished.incrementAndGet();
+        }
+        statistics.splitAttempted(outcome);
+    }
+
+    /**
+     * Count a buffer reaching the end of its source, unregistering the MBean once they all have - so a stream
+     * that's used without being closed doesn't leave it registered
+     */
+    @Override
+    public void sourceExhausted() {
+        statistics.sourceExhausted();
+        if (unfinished.decrementAndGet() == 0) {
+            close();
+        }
+    }
+
+    @Override
+    public long getBatches() {
+        return statistics.getBatches();
+    }
+
+    @Override
+    public long getElements() {
+        return statistics.getElements();
+    }
+
+    @Override
+    public double getAverageBatchSize() {
+        return statistics.getAverageBatchSize();
+    }
+
+    @Override
+    public long getMaxBatchSize() {
+        return statistics.getMaxBatchSize();
+    }
+
+    @Override
+    public int getCurrentBatchLength() {
+        return sizer != null ? sizer.batchLength() : bufferLength;
+    }
+
+    @Override
+    public long getSourceBlockedNanos() {
+        return statistics.getFillNanos();
+    }
+
+    @Override
+    public long getSplitsAccepted() {
+        return statistics.getSplits(BatchListener.SplitOutcome.ACCEPTED);
+    }
+
+    @Override
+    public long getSplitsRefused() {
+        long refused = 0;
+        for (BatchListener.SplitOutcome outcome : BatchListener.SplitOutcome.values()) {
+            if (outcome != BatchListener.SplitOutcome.ACCEPTED) {
+                refused += statistics.getSplits(outcome);
+            }
+        }
+        return refused;
+    }
+
+    /**
+     * Unregister the MBean. Calling this more than once has no effect - in particular, it won't unregister
+     * a later buffer that has been registered with the same name.
+     */
+    @Override
+    public void close() {
+        if (!registered.compareAndSet(true, false)) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(objectName);
+        } catch (InstanceNotFoundException e) {
+            //already unregistered
+        } catch (JMException e) {
+            throw new IllegalStateException("Unable to unregister " + objectName, e);
+        }
+    }
+}
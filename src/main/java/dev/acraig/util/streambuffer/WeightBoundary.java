@@ -0,0 +1,55 @@
+package dev.acraig.util.streambuffer;
+
+import java.util.function.ToLongFunction;
+
+/**
+ * Cut batches by the total weight of their elements, rather than by how many there are. A batch is cut
+ * before the element that would take it over the maximum weight - unless that's the first element,
+ * in which case it's a batch of its own.
+ * @param <T> the datatype
+ */
+final class WeightBoundary<T> implements BatchBoundary<T> {
+    /**
+     * The function giving the (non-negative) weight of each element
+     */
+    private final ToLongFunction<? super T> weigher;
+    /**
+     * The maximum total weight of a batch
+     */
+    private final long maxWeight;
+    /**
+     * The total weight of the current batch
+     */
+    private long weight;
+
+    /**
+     * Constructor
+     * @param weigher the function giving the (non-negative) weight of each element
+     * @param maxWeight the maximum total weight of a batch
+     */
+    WeightBoundary(final ToLongFunction<? super T> weigher, final long maxWeight) {
+        this.weigher = weigher;
+        this.maxWeight = maxWeight;
+    }
+
+    @Override
+    public void start() {
+        weight = 0;
+    }
+
+    @Override
+    public boolean admit(final T element, final int batchSize) {
+        long elementWeight = weigher.applyAsLong(element);
+        if (batchSize == 0 || elementWeight <= maxWeight - weight) {
+            weight += elementWeight;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public BatchBoundary<T> copy() {
+        return new WeightBoundary<>(weigher, maxWeight);
+    }
+}
@@ -0,0 +1,181 @@
+package dev.acraig.util.streambuffer;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Returns fixed size windows over a source, each starting a fixed step after the last - so consecutive windows
+ * overlap when the step is smaller than the size. Rather than copying the elements of each window, the source is
+ * read into chunks the length of a window, which are never changed once written. Each window is an immutable view
+ * over at most two consecutive chunks, so overlapping windows share the same storage. A chunk is only kept for as
+ * long as a window that's still in use refers to it.
+ * Only full windows are returned - any elements after the last full window are dropped.
+ * @param <T> the datatype
+ */
+final class WindowSpliterator<T> extends Spliterators.AbstractSpliterator<List<T>> {
+    /**
+     * The characteristics of the source that still apply to the windows
+     */
+    private static final int KEPT_CHARACTERISTICS = Spliterator.ORDERED | Spliterator.SIZED;
+    /**
+     * The source of the elements
+     */
+    private final Spliterator<T> source;
+    /**
+     * The number of elements in each window, which is also the length of each chunk
+     */
+    private final int size;
+    /**
+     * The number of elements from the start of one window to the start of the next
+     */
+    private final int step;
+    /**
+     * Appends each element read from the source to the newer chunk
+     */
+    private final Consumer<T> appender;
+    /**
+     * The chunk before the newer one, or null before the first chunk has been filled
+     */
+    private Object[] older;
+    /**
+     * The chunk being filled
+     */
+    private Object[] newer;
+    /**
+     * The number of elements in the newer chunk
+     */
+    private int filled;
+    /**
+     * The start of the next window, counted from the start of the older chunk
+     */
+    private long nextStart;
+
+    /**
+     * Constructor
+     * @param source the source of the elements
+     * @param size the number of elements in each window
+     * @param step the number of elements from the start of one window to the start of the next
+     */
+    WindowSpliterator(final Spliterator<T> source, final int size, final int step) {
+        super(Long.MAX_VALUE, (source.characteristics() & KEPT_CHARACTERISTICS) | Spliterator.NONNULL
+                | Spliterator.IMMUTABLE);
+        if (size < 1 || step < 1) {
+            throw new IllegalArgumentException("The size and step must be at least 1");
+        }
+        this.source = source;
+        this.size = size;
+        this.step = step;
+        this.newer = new Object[size];
+        this.nextStart = size; //there's no older chunk yet, so start at the newer one
+        this.appender = element -> newer[filled++] = element;
+    }
+
+    /**
+     * Read until the next window is full, and send it
+     * @param action the action to send the next window to
+     * @return true if there was a full window to send, false otherwise
+     */
+    @Override
+    public boolean tryAdvance(final Consumer<? super List<T>> action) {
+        while (nextStart + size > size + filled) {
+            if (filled == size) {
+                older = newer;
+                newer = new Object[size];
+                filled = 0;
+                nextStart -= size;
+            }
+            if (!source.tryAdvance(appender)) {
+                return false;
+            }
+        }
+        action.accept(new Window<>(older, newer, (int) nextStart, size));
+        nextStart += step;
+        return true;
+    }
+
+    /**
+     * Overlapping windows can't be split between threads without reading the elements at the split twice,
+     * so this doesn't split
+     * @return null
+     */
+    @Override
+    public Spliterator<List<T>> trySplit() {
+        return null;
+    }
+
+    /**
+     * Estimate the number of windows remaining. If the source knows its exact size, this is exact.
+     * @return the estimated number of windows, or {@link Long#MAX_VALUE} if it can't be determined
+     */
+    @Override
+    public long estimateSize() {
+        long sourceSize = source.estimateSize();
+        if (sourceSize == Long.MAX_VALUE) {
+            return sourceSize;
+        }
+        long available = sourceSize + size + filled - nextStart;
+        return available < size ? 0 : 1 + (available - size) / step;
+    }
+
+    /**
+     * An immutable view of a window over up to two consecutive chunks
+     * @param <T> the datatype
+     */
+    private static final class Window<T> extends AbstractList<T> implements RandomAccess {
+        /**
+         * The chunk holding the start of the window
+         */
+        private final Object[] first;
+        /**
+         * The chunk holding the rest of the window, if it doesn't all fit in the first
+         */
+        private final Object[] second;
+        /**
+         * The index of the start of the window in the first chunk
+         */
+        private final int offset;
+        /**
+         * The number of elements in the window
+         */
+        private final int size;
+
+        /**
+         * Constructor
+         * @param older the older chunk, or null if there isn't one
+         * @param newer the newer chunk
+         * @param start the start of the window, counted from the start of the older chunk
+         * @param size the number of elements in the window
+         */
+        private Window(final Object[] older, final Object[] newer, final int start, final int size) {
+            if (start >= newer.length) { //entirely in the newer chunk
+                this.first = newer;
+                this.second = null;
+                this.offset = start - newer.length;
+            } else {
+                this.first = older;
+                this.second = newer;
+                this.offset = start;
+            }
+            this.size = size;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(final int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index " + index + " is outside a window of " + size);
+            }
+            int position = offset + index;
+            return (T) (position < first.length ? first[position] : second[position - first.length]);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
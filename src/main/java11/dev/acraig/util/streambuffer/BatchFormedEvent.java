@@ -0,0 +1,29 @@
+package dev.acraig.util.streambuffer;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for a batch formed by a {@link StreamBuffer}. The event starts when the batch is started,
+ * so its duration is the time spent reading the batch from the source.
+ */
+@Name("dev.acraig.streambuffer.BatchFormed")
+@Label("Batch Formed")
+@Category("Stream Buffer")
+@Description("A batch was read from the source of a stream buffer")
+final class BatchFormedEvent extends Event {
+    /**
+     * The number of elements in the batch
+     */
+    @Label("Size")
+    int size;
+
+    /**
+     * The preferred length of the batch
+     */
+    @Label("Preferred Length")
+    int preferredLength;
+}
@@ -0,0 +1,64 @@
+package dev.acraig.util.streambuffer;
+
+import jdk.jfr.EventType;
+
+/**
+ * Records the events from a {@link StreamBuffer} to the flight recorder. Each event is only created and committed
+ * when a recording that has the event enabled is running, so this costs very little otherwise.
+ * This is the listener used by default when the flight recorder is available.
+ */
+final class JfrBatchListener implements BatchListener {
+    /**
+     * The type of the batch formed event, to check whether it's enabled before starting one
+     */
+    private static final EventType BATCH_FORMED = EventType.getEventType(BatchFormedEvent.class);
+    /**
+     * The event for the batch being formed on each thread, begun when the batch was started - or null if the
+     * event wasn't enabled then. It's cleared when the source is exhausted, and replaced when the next batch is
+     * started, so a batch that's never formed (because the source was empty or failed) doesn't leave it behind.
+     */
+    private final ThreadLocal<BatchFormedEvent> current = new ThreadLocal<>();
+
+    @Override
+    public void batchStarted() {
+        if (BATCH_FORMED.isEnabled()) {
+            BatchFormedEvent event = new BatchFormedEvent();
+            event.begin();
+            current.set(event);
+        } else {
+            current.remove();
+        }
+    }
+
+    @Override
+    public void batchFormed(final int size, final int preferredLength, final long fillNanos) {
+        BatchFormedEvent event = current.get();
+        if (event != null) {
+            current.remove();
+            event.end();
+            if (event.shouldCommit()) {
+                event.size = size;
+                event.preferredLength = preferredLength;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Clear the event of a batch started on this thread - the last batch is formed before the source is
+     * reported as exhausted, so this is only left if the batch was never formed
+     */
+    @Override
+    public void sourceExhausted() {
+        current.remove();
+    }
+
+    @Override
+    public void splitAttempted(final SplitOutcome outcome) {
+        SplitEvent event = new SplitEvent();
+        if (event.shouldCommit()) {
+            event.outcome = outcome.name();
+            event.commit();
+        }
+    }
+}
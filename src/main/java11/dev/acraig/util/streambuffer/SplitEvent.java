@@ -0,0 +1,22 @@
+package dev.acraig.util.streambuffer;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for an attempt to split a {@link StreamBuffer}
+ */
+@Name("dev.acraig.streambuffer.Split")
+@Label("Split Attempted")
+@Category("Stream Buffer")
+@Description("A stream buffer was asked to split for parallel processing")
+final class SplitEvent extends Event {
+    /**
+     * Whether the buffer was split, or why not
+     */
+    @Label("Outcome")
+    String outcome;
+}
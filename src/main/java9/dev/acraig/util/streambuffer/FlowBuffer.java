@@ -0,0 +1,49 @@
+package dev.acraig.util.streambuffer;
+
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Adapts the buffering of {@link StreamBuffer} to the reactive streams of {@link Flow}.
+ * This requires Java 9 or later.
+ */
+public final class FlowBuffer {
+    /**
+     * Not instantiated
+     */
+    private FlowBuffer() {
+    }
+
+    /**
+     * Factory method to publish the buffered lists of an input source. Each list requested by the subscriber is
+     * buffered from the input by the thread calling {@link Flow.Subscription#request(long)}, so exactly as many
+     * lists are read as are requested. The input can only be read once, so the publisher only accepts one subscriber.
+     * @param input the input to read through
+     * @param minSize the minimum size of the lists to return (except for the first list).
+     * @param bufferLength the maximum preferred buffer length of the buffer
+     * @param <V> the object type
+     * @return the publisher of the buffered lists
+     */
+    public static <V> Flow.Publisher<List<V>> publisher(Stream<V> input, int minSize, int bufferLength) {
+        return new SpliteratorPublisher<>(new StreamBuffer<>(input.spliterator(), minSize, bufferLength, null));
+    }
+
+    /**
+     * Factory method to generate a buffer from a publisher. The publisher is subscribed to when the first list is
+     * read, and elements are requested {@code bufferLength} at a time rather than individually. The lists follow
+     * the same rules as {@link StreamBuffer#buffer(Stream, int, int)}. Closing the stream cancels the subscription,
+     * and any error from the publisher is rethrown from the stream.
+     * @param publisher the publisher to read through
+     * @param minSize the minimum size of the lists to return (except for the first list).
+     * @param bufferLength the maximum preferred buffer length of the buffer
+     * @param <V> the object type
+     * @return the new stream of buffered elements.
+     */
+    public static <V> Stream<List<V>> buffer(Flow.Publisher<V> publisher, int minSize, int bufferLength) {
+        SubscriberSpliterator<V> subscriber = new SubscriberSpliterator<>(publisher, bufferLength);
+        return StreamSupport.stream(new StreamBuffer<>(subscriber, minSize, bufferLength, null), false)
+                .onClose(subscriber::cancel);
+    }
+}
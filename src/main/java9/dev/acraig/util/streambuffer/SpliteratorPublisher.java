@@ -0,0 +1,165 @@
+package dev.acraig.util.streambuffer;
+
+import java.util.Spliterator;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Publishes the elements of a spliterator to a single subscriber. Each element requested is read from the
+ * spliterator by whichever thread called {@link Flow.Subscription#request(long)}, so no thread is handed off to,
+ * and no more elements are read than have been requested. A request made from within {@code onNext} adds to the
+ * demand of the running loop rather than recursing into it.
+ * @param <T> the datatype
+ */
+final class SpliteratorPublisher<T> implements Flow.Publisher<T> {
+    /**
+     * The elements to publish
+     */
+    private final Spliterator<T> source;
+    /**
+     * Whether a subscriber has been accepted - the spliterator can only be read once
+     */
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * Constructor
+     * @param source the elements to publish
+     */
+    SpliteratorPublisher(final Spliterator<T> source) {
+        this.source = source;
+    }
+
+    /**
+     * Subscribe to the elements. Only the first subscriber receives them, any later subscriber is sent an error.
+     * @param subscriber the subscriber to send the elements to
+     */
+    @Override
+    public void subscribe(final Flow.Subscriber<? super T> subscriber) {
+        if (subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Subscription(subscriber));
+        } else {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(final long n) {
+                    //already terminated
+                }
+
+                @Override
+                public void cancel() {
+                    //already terminated
+                }
+            });
+            subscriber.onError(new IllegalStateException("The publisher only supports a single subscriber"));
+        }
+    }
+
+    /**
+     * The subscription of the subscriber to the spliterator
+     */
+    private final class Subscription implements Flow.Subscription, Consumer<T> {
+        /**
+         * The subscriber to send the elements to
+         */
+        private final Flow.Subscriber<? super T> subscriber;
+        /**
+         * The number of elements requested, but not sent yet
+         */
+        private final AtomicLong demand = new AtomicLong();
+        /**
+         * The number of times the loop sending elements has been asked to run. Only the caller that moves this
+         * from zero runs the loop, and it keeps running until every other call has been accounted for.
+         */
+        private final AtomicInteger pending = new AtomicInteger();
+        /**
+         * Set if the subscriber has cancelled, or has been sent a terminal signal
+         */
+        private volatile boolean done;
+        /**
+         * The error from an invalid request, to be sent by the loop
+         */
+        private volatile Throwable invalidRequest;
+
+        /**
+         * Constructor
+         * @param subscriber the subscriber to send the elements to
+         */
+        private Subscription(final Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Requested " + n + " elements, which isn't positive");
+            } else {
+                demand.getAndAccumulate(n, (current, added) -> {
+                    long total = current + added;
+                    return total < 0 ? Long.MAX_VALUE : total;
+                });
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            done = true;
+        }
+
+        /**
+         * Send the next element to the subscriber
+         * @param element the element
+         */
+        @Override
+        public void accept(final T element) {
+            subscriber.onNext(element);
+        }
+
+        /**
+         * Send elements for as long as there is demand, unless this is already running further up the stack
+         * or on another thread - in which case, that loop will pick up the new demand
+         */
+        private void drain() {
+            if (pending.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                while (!done) {
+                    Throwable error = invalidRequest;
+                    if (error != null) {
+                        done = true;
+                        subscriber.onError(error);
+                    } else if (demand.get() == 0) {
+                        break;
+                    } else {
+                        send();
+                    }
+                }
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        /**
+         * Send a single element, or the terminal signal if the spliterator is exhausted or fails
+         */
+        private void send() {
+            boolean sent;
+            try {
+                sent = source.tryAdvance(this);
+            } catch (RuntimeException | Error e) {
+                done = true;
+                subscriber.onError(e);
+                return;
+            }
+            if (sent) {
+                demand.decrementAndGet();
+            } else {
+                done = true;
+                subscriber.onComplete();
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package dev.acraig.util.streambuffer;
+
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Reads the elements of a publisher as a spliterator. Demand is requested in blocks of the batch length, rather
+ * than an element at a time - the next block is requested as soon as the previous one has been read, so there's
+ * always a block in flight. The publisher is subscribed to when the first element is read.
+ * @param <T> the datatype
+ */
+final class SubscriberSpliterator<T> extends Spliterators.AbstractSpliterator<T> implements Flow.Subscriber<T> {
+    /**
+     * Queued when the publisher completes
+     */
+    private static final Object COMPLETE = new Object();
+    /**
+     * The publisher to read
+     */
+    private final Flow.Publisher<T> publisher;
+    /**
+     * The number of elements to request at a time
+     */
+    private final int requestLength;
+    /**
+     * The elements received, followed by either {@link #COMPLETE} or the error. This never holds more
+     * than the demand that has been requested.
+     */
+    private final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+    /**
+     * Released once the subscription has been received
+     */
+    private final CountDownLatch subscribed = new CountDownLatch(1);
+    /**
+     * The subscription to the publisher, once received
+     */
+    private volatile Flow.Subscription subscription;
+    /**
+     * Whether the publisher has been subscribed to
+     */
+    private boolean started;
+    /**
+     * The number of elements read since the last request
+     */
+    private int readSinceRequest;
+    /**
+     * Whether the publisher has completed, failed, or been cancelled
+     */
+    private boolean finished;
+
+    /**
+     * Constructor
+     * @param publisher the publisher to read
+     * @param requestLength the number of elements to request at a time
+     */
+    SubscriberSpliterator(final Flow.Publisher<T> publisher, final int requestLength) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.publisher = publisher;
+        this.requestLength = requestLength;
+    }
+
+    /**
+     * Wait for the next element from the publisher, subscribing if this is the first call
+     * @param action the action to send the next element to
+     * @return true if there was an element to send, false if the publisher has completed
+     */
+    @Override
+    public boolean tryAdvance(final Consumer<? super T> action) {
+        if (finished) {
+            return false;
+        }
+        if (!started) {
+            started = true;
+            publisher.subscribe(this);
+            await();
+            subscription.request(requestLength);
+        }
+        Object next = take();
+        if (next == COMPLETE) {
+            finished = true;
+            return false;
+        } else if (next instanceof Failure) {
+            finished = true;
+            throw ((Failure) next).rethrow();
+        }
+        if (++readSinceRequest == requestLength) {
+            readSinceRequest = 0;
+            subscription.request(requestLength);
+        }
+        action.accept(cast(next));
+        return true;
+    }
+
+    /**
+     * The publisher is read in order, so this can't be split
+     * @return null
+     */
+    @Override
+    public Spliterator<T> trySplit() {
+        return null;
+    }
+
+    /**
+     * Cancel the subscription, if there is one
+     */
+    void cancel() {
+        finished = true;
+        Flow.Subscription current = subscription;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    @Override
+    public void onSubscribe(final Flow.Subscription newSubscription) {
+        if (subscription != null) {
+            newSubscription.cancel(); //only one subscription is used
+            return;
+        }
+        subscription = newSubscription;
+        subscribed.countDown();
+    }
+
+    @Override
+    public void onNext(final T item) {
+        received.add(item);
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+        received.add(new Failure(throwable));
+        subscribed.countDown(); //in case the publisher fails before subscribing
+    }
+
+    @Override
+    public void onComplete() {
+        received.add(COMPLETE);
+    }
+
+    /**
+     * Wait for the subscription, or for the publisher to fail
+     */
+    private void await() {
+        try {
+            subscribed.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting to subscribe", e);
+        }
+        if (subscription == null) {
+            finished = true;
+            throw ((Failure) received.poll()).rethrow();
+        }
+    }
+
+    /**
+     * Take the next signal from the queue, waiting until one is available
+     * @return the element, {@link #COMPLETE} or the error
+     */
+    private Object take() {
+        try {
+            return received.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+            throw new IllegalStateException("Interrupted waiting for the next element", e);
+        }
+    }
+
+    /**
+     * @param element an element taken from the queue
+     * @return the element
+     */
+    @SuppressWarnings("unchecked")
+    private T cast(final Object element) {
+        return (T) element;
+    }
+
+    /**
+     * Queued when the publisher fails, to be rethrown to the consumer
+     */
+    private static final class Failure {
+        /**
+         * The failure of the publisher
+         */
+        private final Throwable cause;
+
+        /**
+         * Constructor
+         * @param cause the failure of the publisher
+         */
+        private Failure(final Throwable cause) {
+            this.cause = cause;
+        }
+
+        /**
+         * @return the unchecked exception to throw to the consumer
+         * @throws Error if the failure was an error
+         */
+        private RuntimeException rethrow() {
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            } else if (cause instanceof RuntimeException) {
+                return (RuntimeException) cause;
+            } else {
+                return new IllegalStateException("The publisher failed", cause);
+            }
+        }
+    }
+}
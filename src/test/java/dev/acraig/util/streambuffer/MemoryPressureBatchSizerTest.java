@@ -0,0 +1,84 @@
+package dev.acraig.util.streambuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Unit test for the memory pressure sizer, setting the pressure directly rather than through garbage collection
+ */
+public class MemoryPressureBatchSizerTest {
+    /**
+     * Verify that the length is capped while the heap is under pressure, and never raised above the delegate's
+     */
+    @Test
+    public void testPressure() {
+        AtomicBoolean underPressure = new AtomicBoolean();
+        AtomicBoolean closed = new AtomicBoolean();
+        HeapPressure pressure = new HeapPressure() {
+            @Override
+            public boolean isUnderPressure() {
+                return underPressure.get();
+            }
+
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+        try (MemoryPressureBatchSizer sizer = new MemoryPressureBatchSizer(fixed(1000), 10, pressure)) {
+            Assert.assertEquals(1000, sizer.batchLength());
+            Assert.assertFalse(sizer.isUnderPressure());
+            underPressure.set(true);
+            Assert.assertTrue(sizer.isUnderPressure());
+            Assert.assertEquals(10, sizer.batchLength());
+            underPressure.set(false);
+            Assert.assertEquals(1000, sizer.batchLength());
+        }
+        Assert.assertTrue(closed.get());
+        try (MemoryPressureBatchSizer sizer = new MemoryPressureBatchSizer(fixed(5), 10, pressure)) {
+            underPressure.set(true);
+            Assert.assertEquals(5, sizer.batchLength());
+        }
+    }
+
+    /**
+     * Verify that signalled pressure clears once no watched pool is over its threshold
+     */
+    @Test
+    public void testPressureClears() {
+        try (CollectionUsagePressure pressure = new CollectionUsagePressure(Collections.emptyList(), 0.8)) {
+            Assert.assertFalse(pressure.isUnderPressure());
+            pressure.pressureSignalled();
+            Assert.assertFalse(pressure.isUnderPressure()); //no pool is over its threshold
+        }
+    }
+
+    /**
+     * Verify that an invalid usage threshold is rejected
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidThreshold() {
+        new CollectionUsagePressure(Collections.emptyList(), 0.0).close();
+    }
+
+    /**
+     * @param length the length of every batch
+     * @return a sizer always choosing the same length
+     */
+    private static BatchSizer fixed(final int length) {
+        return new BatchSizer() {
+            @Override
+            public int batchLength() {
+                return length;
+            }
+
+            @Override
+            public void batchProcessed(final int size, final long nanos) {
+                //always the same length
+            }
+        };
+    }
+}
@@ -1,12 +1,48 @@
 package dev.acraig.util.streambuffer.test;
 
+import dev.acraig.util.streambuffer.AdaptiveBatchSizer;
+import dev.acraig.util.streambuffer.BatchListener;
+import dev.acraig.util.streambuffer.BatchSizer;
+import dev.acraig.util.streambuffer.BatchStatistics;
+import dev.acraig.util.streambuffer.ElementCodec;
+import dev.acraig.util.streambuffer.OffHeapBatch;
+import dev.acraig.util.streambuffer.PooledBatch;
+import dev.acraig.util.streambuffer.SpillingBatch;
 import dev.acraig.util.streambuffer.StreamBuffer;
 import org.junit.Assert;
 import org.junit.Test;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
 import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
@@ -114,6 +150,773 @@ public class StreamBufferTest {
         Assert.assertEquals(expectedSize, resultingValues.size());
     }
 
+    /**
+     * Verify that splitting a sized source gives the same lists as processing it sequentially
+     */
+    @Test
+    public void testParallelAligned() {
+        List<Long> input = LongStream.range(0, 10002).boxed().collect(Collectors.toList());
+        List<List<Long>> sequential = StreamBuffer.buffer(input.stream(), 3, 100).collect(Collectors.toList());
+        List<List<Long>> parallel = StreamBuffer.buffer(input.parallelStream(), 3, 100).parallel()
+                .collect(Collectors.toList());
+        Assert.assertEquals(sequential, parallel);
+        Assert.assertTrue(parallel.subList(0, parallel.size() - 1).stream().allMatch(list -> list.size() == 100));
+        Assert.assertEquals(102, parallel.get(parallel.size() - 1).size());
+    }
+
+    /**
+     * Verify that a sized source gives an exact count of the lists, before and during traversal
+     */
+    @Test
+    public void testExactSize() {
+        for (int size = 0 ; size < 30 ; size++) {
+            for (int minSize = 1 ; minSize < 6 ; minSize++) {
+                for (int bufferLength = 1 ; bufferLength < 6 ; bufferLength++) {
+                    long expected = StreamBuffer.buffer(LongStream.range(0, size).boxed(), minSize, bufferLength)
+                            .collect(Collectors.toList()).size();
+                    Spliterator<List<Long>> spliterator = StreamBuffer.buffer(LongStream.range(0, size).boxed(), minSize,
+                            bufferLength).spliterator();
+                    Spliterator<long[]> primitive = StreamBuffer.buffer(LongStream.range(0, size), minSize, bufferLength)
+                            .spliterator();
+                    Assert.assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED));
+                    Assert.assertTrue(primitive.hasCharacteristics(Spliterator.SIZED));
+                    do {
+                        Assert.assertEquals(expected, spliterator.getExactSizeIfKnown());
+                        Assert.assertEquals(expected, primitive.getExactSizeIfKnown());
+                        expected--;
+                    } while (spliterator.tryAdvance(list -> { }) & primitive.tryAdvance(array -> { }));
+                    Assert.assertEquals(-1, expected);
+                }
+            }
+        }
+    }
+
+    /**
+     * Verify that characteristics that don't apply to the lists are not reported
+     */
+    @Test
+    public void testCharacteristics() {
+        Spliterator<List<Integer>> sorted = StreamBuffer.buffer(new TreeSet<>(Arrays.asList(3, 1, 2)).stream(), 1, 2)
+                .spliterator();
+        Assert.assertFalse(sorted.hasCharacteristics(Spliterator.SORTED));
+        Assert.assertFalse(sorted.hasCharacteristics(Spliterator.DISTINCT));
+        Assert.assertTrue(sorted.hasCharacteristics(Spliterator.ORDERED));
+        Assert.assertTrue(sorted.hasCharacteristics(Spliterator.NONNULL));
+        Spliterator<List<Integer>> unsized = StreamBuffer.buffer(Stream.iterate(0, i -> i + 1).limit(10), 1, 2)
+                .spliterator();
+        Assert.assertFalse(unsized.hasCharacteristics(Spliterator.SIZED));
+        Object[] parallel = StreamBuffer.buffer(IntStream.range(0, 10001).boxed().collect(Collectors.toList())
+                .parallelStream(), 2, 10).parallel().toArray();
+        Assert.assertEquals(1000, parallel.length);
+    }
+
+    /**
+     * Verify that traversing in bulk cuts the batches in the same places as pulling them one at a time
+     */
+    @Test
+    public void testBulkMatchesTryAdvance() {
+        for (int size = 0 ; size < 30 ; size++) {
+            for (int minSize = 1 ; minSize < 6 ; minSize++) {
+                for (int bufferLength = 1 ; bufferLength < 6 ; bufferLength++) {
+                    List<Long> input = LongStream.range(0, size).boxed().collect(Collectors.toList());
+                    List<List<Long>> bulk = new ArrayList<>();
+                    StreamBuffer.buffer(input.stream(), minSize, bufferLength).spliterator().forEachRemaining(bulk::add);
+                    List<List<Long>> single = new ArrayList<>();
+                    Spliterator<List<Long>> spliterator = StreamBuffer.buffer(input.stream(), minSize, bufferLength).spliterator();
+                    while (spliterator.tryAdvance(single::add)) {
+                        Assert.assertTrue(single.size() <= size);
+                    }
+                    Assert.assertEquals(single, bulk);
+                }
+            }
+        }
+    }
+
+    /**
+     * Verify that primitive streams are cut into arrays in the same places as the boxed equivalent
+     */
+    @Test
+    public void testPrimitiveMatchesBoxed() {
+        for (int size = 0 ; size < 30 ; size++) {
+            for (int minSize = 1 ; minSize < 6 ; minSize++) {
+                for (int bufferLength = 1 ; bufferLength < 6 ; bufferLength++) {
+                    List<List<Long>> boxed = StreamBuffer.buffer(LongStream.range(0, size).boxed(), minSize, bufferLength)
+                            .collect(Collectors.toList());
+                    List<long[]> bulk = StreamBuffer.buffer(LongStream.range(0, size), minSize, bufferLength)
+                            .collect(Collectors.toList());
+                    List<long[]> single = new ArrayList<>();
+                    Spliterator<long[]> spliterator = StreamBuffer.buffer(LongStream.range(0, size), minSize, bufferLength)
+                            .spliterator();
+                    while (spliterator.tryAdvance(single::add)) {
+                        Assert.assertTrue(single.size() <= size);
+                    }
+                    Assert.assertEquals(boxed.size(), bulk.size());
+                    Assert.assertEquals(boxed.size(), single.size());
+                    for (int i = 0 ; i < boxed.size() ; i++) {
+                        long[] expected = boxed.get(i).stream().mapToLong(Long::longValue).toArray();
+                        Assert.assertArrayEquals(expected, bulk.get(i));
+                        Assert.assertArrayEquals(expected, single.get(i));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Verify that the int and double buffers return the elements in order
+     */
+    @Test
+    public void testIntAndDouble() {
+        List<int[]> ints = StreamBuffer.buffer(IntStream.range(0, 6), 2, 4).collect(Collectors.toList());
+        Assert.assertEquals(2, ints.size());
+        Assert.assertArrayEquals(new int[]{0, 1, 2, 3}, ints.get(0));
+        Assert.assertArrayEquals(new int[]{4, 5}, ints.get(1));
+        List<double[]> doubles = StreamBuffer.buffer(DoubleStream.of(1, 2, 3, 4, 5), 2, 4).collect(Collectors.toList());
+        Assert.assertEquals(1, doubles.size());
+        Assert.assertArrayEquals(new double[]{1, 2, 3, 4, 5}, doubles.get(0), 0);
+    }
+
+    /**
+     * Verify that primitive buffers can be processed in parallel
+     */
+    @Test
+    public void testParallelPrimitive() {
+        final int expectedSize = 5000;
+        List<long[]> groups = StreamBuffer.buffer(LongStream.range(0, expectedSize).parallel(), 5, 5)
+                .parallel()
+                .collect(Collectors.toList());
+        Assert.assertTrue(groups.stream().allMatch(group -> group.length >= 5));
+        long[] resultingValues = groups.stream().flatMapToLong(LongStream::of).toArray();
+        Assert.assertArrayEquals(LongStream.range(0, expectedSize).toArray(), resultingValues);
+    }
+
+    /**
+     * Verify that pooled batches hold the right elements, and can't be used once they're released
+     */
+    @Test
+    public void testPooled() {
+        List<Long> seen = new ArrayList<>();
+        List<PooledBatch<Long>> released = new ArrayList<>();
+        StreamBuffer.bufferPooled(LongStream.range(0, 23).boxed(), 2, 5, 1).forEach(batch -> {
+            try (PooledBatch<Long> current = batch) {
+                Assert.assertTrue(isConsecutive(current));
+                seen.addAll(current);
+            }
+            released.add(batch);
+        });
+        Assert.assertEquals(LongStream.range(0, 23).boxed().collect(Collectors.toList()), seen);
+        Assert.assertEquals(5, released.size());
+        try {
+            released.get(0).size();
+            Assert.fail("Released batch should not be usable");
+        } catch (IllegalStateException expected) {
+            //expected
+        }
+    }
+
+    /**
+     * Verify that reading ahead on a background thread returns the same lists
+     */
+    @Test
+    public void testAsync() {
+        List<Long> input = LongStream.range(0, 1003).boxed().collect(Collectors.toList());
+        try (Stream<List<Long>> async = StreamBuffer.bufferAsync(input.stream(), 5, 10, 2)) {
+            Assert.assertEquals(StreamBuffer.buffer(input.stream(), 5, 10).collect(Collectors.toList()),
+                    async.collect(Collectors.toList()));
+        }
+    }
+
+    /**
+     * Verify that a failure reading ahead is rethrown from the stream
+     */
+    @Test
+    public void testAsyncFailure() {
+        Stream<Long> failing = LongStream.range(0, 100).boxed().map(value -> {
+            if (value == 42) {
+                throw new UnsupportedOperationException("failed");
+            }
+            return value;
+        });
+        List<List<Long>> received = new ArrayList<>();
+        try (Stream<List<Long>> async = StreamBuffer.bufferAsync(failing, 1, 10, 2)) {
+            async.forEach(received::add);
+            Assert.fail("Failure should have been rethrown");
+        } catch (UnsupportedOperationException expected) {
+            Assert.assertEquals(4, received.size());
+        }
+    }
+
+    /**
+     * Verify that closing the stream early stops the background reader
+     */
+    @Test
+    public void testAsyncClose() throws Exception {
+        AtomicLong read = new AtomicLong();
+        AtomicReference<Thread> reader = new AtomicReference<>();
+        Stream<Long> endless = Stream.iterate(0L, value -> value + 1).peek(value -> read.incrementAndGet());
+        try (Stream<List<Long>> async = StreamBuffer.bufferAsync(endless, 1, 10, 2, task -> {
+            reader.set(new Thread(task));
+            reader.get().start();
+        })) {
+            Assert.assertEquals(3, async.limit(3).count());
+        }
+        reader.get().join(TimeUnit.SECONDS.toMillis(5)); //the batch being read when closed can still finish
+        Assert.assertFalse(reader.get().isAlive());
+        long afterClose = read.get();
+        Thread.sleep(100);
+        Assert.assertEquals(afterClose, read.get());
+    }
+
+    /**
+     * Verify that every list is processed, with no more than the maximum number at once
+     */
+    @Test
+    public void testProcessBatches() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Long> processed = Collections.synchronizedList(new ArrayList<>());
+        StreamBuffer.processBatches(LongStream.range(0, 1000).boxed(), 1, 10, batch -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            processed.addAll(batch);
+            running.decrementAndGet();
+        }, 4);
+        Assert.assertEquals(1000, processed.size());
+        Assert.assertEquals(1000, new TreeSet<>(processed).size());
+        Assert.assertTrue(maxRunning.get() <= 4);
+    }
+
+    /**
+     * Verify that a failure processing a list is rethrown, and stops any more lists being sent
+     */
+    @Test
+    public void testProcessBatchesFailure() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        AtomicInteger processed = new AtomicInteger();
+        try {
+            StreamBuffer.processBatches(LongStream.range(0, 1000).boxed(), 1, 10, batch -> {
+                if (processed.incrementAndGet() == 5) {
+                    throw new UnsupportedOperationException("failed");
+                }
+            }, 2, executor);
+            Assert.fail("Failure should have been rethrown");
+        } catch (UnsupportedOperationException expected) {
+            Assert.assertTrue(processed.get() < 100);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Verify that a failure reading the source is rethrown once the lists already sent have been processed,
+     * rather than waiting forever
+     */
+    @Test
+    public void testProcessBatchesSourceFailure() {
+        AtomicInteger processed = new AtomicInteger();
+        try {
+            StreamBuffer.processBatches(LongStream.range(0, 1000).boxed().peek(value -> {
+                if (value == 500) {
+                    throw new UnsupportedOperationException("source failed");
+                }
+            }), 1, 10, batch -> processed.addAndGet(batch.size()), 2);
+            Assert.fail("Failure should have been rethrown");
+        } catch (UnsupportedOperationException expected) {
+            Assert.assertEquals("source failed", expected.getMessage());
+            Assert.assertEquals(500, processed.get());
+        }
+    }
+
+    /**
+     * Verify that the results of mapping lists concurrently are returned in the original order
+     */
+    @Test
+    public void testMapBatches() {
+        Random random = new Random(42);
+        try (Stream<Long> mapped = StreamBuffer.mapBatches(LongStream.range(0, 1000).boxed(), 1, 10, batch -> {
+            try {
+                Thread.sleep(random.nextInt(3));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return batch.stream().map(value -> value * 2).collect(Collectors.toList());
+        }, 4)) {
+            Assert.assertEquals(LongStream.range(0, 1000).map(value -> value * 2).boxed().collect(Collectors.toList()),
+                    mapped.collect(Collectors.toList()));
+        }
+    }
+
+    /**
+     * Verify that the threads mapping the lists exit once the stream has been read to the end, without it being
+     * closed
+     */
+    @Test
+    public void testMapBatchesThreadsExit() throws Exception {
+        for (int i = 0 ; i < 5 ; i++) {
+            Assert.assertEquals(1000, StreamBuffer.mapBatches(LongStream.range(0, 1000).boxed(), 1, 10,
+                    batch -> batch, 4).count());
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mapThreads() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, mapThreads());
+    }
+
+    /**
+     * Verify that a failure mapping a list is rethrown from the stream
+     */
+    @Test
+    public void testMapBatchesFailure() {
+        try (Stream<Long> mapped = StreamBuffer.mapBatches(LongStream.range(0, 1000).boxed(), 1, 10, batch -> {
+            if (batch.contains(500L)) {
+                throw new UnsupportedOperationException("failed");
+            }
+            return batch;
+        }, 4)) {
+            List<Long> received = new ArrayList<>();
+            try {
+                mapped.forEach(received::add);
+                Assert.fail("Failure should have been rethrown");
+            } catch (UnsupportedOperationException expected) {
+                Assert.assertEquals(500, received.size());
+            }
+        }
+    }
+
+    /**
+     * Verify that the results of mapping each list are returned in order, with the size kept
+     */
+    @Test
+    public void testMapBatched() {
+        List<Long> expected = LongStream.range(0, 1003).map(value -> value * 2).boxed().collect(Collectors.toList());
+        Spliterator<Long> spliterator = StreamBuffer.mapBatched(LongStream.range(0, 1003).boxed(), 10,
+                batch -> batch.stream().map(value -> value * 2).collect(Collectors.toList())).spliterator();
+        Assert.assertEquals(1003, spliterator.getExactSizeIfKnown());
+        Assert.assertTrue(spliterator.tryAdvance(value -> Assert.assertEquals(0L, value.longValue())));
+        Assert.assertEquals(1002, spliterator.getExactSizeIfKnown());
+        Assert.assertEquals(expected, StreamBuffer.mapBatched(expected.stream().map(value -> value / 2).parallel(), 10,
+                batch -> batch.stream().map(value -> value * 2).collect(Collectors.toList())).collect(Collectors.toList()));
+    }
+
+    /**
+     * Verify that a mapper returning the wrong number of results is rejected
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testMapBatchedWrongSize() {
+        StreamBuffer.mapBatched(LongStream.range(0, 100).boxed(), 10, batch -> batch.subList(1, batch.size()))
+                .forEach(value -> { });
+    }
+
+    /**
+     * Verify that the collector sends the same lists as buffering the stream, and combines parallel leftovers
+     */
+    @Test
+    public void testBatching() {
+        for (int minSize = 1 ; minSize < 8 ; minSize++) {
+            List<List<Long>> sent = new ArrayList<>();
+            long count = LongStream.range(0, 1003).boxed().collect(StreamBuffer.batching(minSize, 5, sent::add));
+            Assert.assertEquals(StreamBuffer.buffer(LongStream.range(0, 1003).boxed(), minSize, 5)
+                    .collect(Collectors.toList()), sent);
+            Assert.assertEquals(sent.size(), count);
+        }
+        List<List<Long>> sent = Collections.synchronizedList(new ArrayList<>());
+        long count = LongStream.range(0, 10003).boxed().parallel().collect(StreamBuffer.batching(3, 100, sent::add));
+        Assert.assertEquals(sent.size(), count);
+        Assert.assertEquals(10003, sent.stream().flatMap(List::stream).collect(Collectors.toSet()).size());
+        Assert.assertTrue(sent.stream().allMatch(list -> list.size() >= 3));
+    }
+
+    /**
+     * Verify that each list takes the length chosen by the sizer, which is told the size of each list processed
+     */
+    @Test
+    public void testSizer() {
+        List<Integer> processed = new ArrayList<>();
+        BatchSizer sizer = new BatchSizer() {
+            @Override
+            public int batchLength() {
+                return processed.size() + 1;
+            }
+
+            @Override
+            public void batchProcessed(final int size, final long nanos) {
+                processed.add(size);
+            }
+        };
+        Stream<List<Long>> stream = StreamBuffer.buffer(LongStream.range(0, 16).boxed(), 1, sizer);
+        Assert.assertFalse(stream.spliterator().hasCharacteristics(Spliterator.SIZED));
+        List<Integer> sizes = StreamBuffer.buffer(LongStream.range(0, 16).boxed(), 1, sizer)
+                .map(List::size).collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList(1, 2, 3, 4, 5, 1), sizes);
+        Assert.assertEquals(sizes, processed);
+    }
+
+    /**
+     * Verify that the adaptive sizer grows the length when batches are quick, and shrinks it when they're slow
+     */
+    @Test
+    public void testAdaptiveSizer() {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(10, 1000, 10, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(10, sizer.batchLength());
+        sizer.batchProcessed(10, TimeUnit.MICROSECONDS.toNanos(10));
+        Assert.assertEquals(20, sizer.batchLength());
+        for (int i = 0 ; i < 20 ; i++) {
+            sizer.batchProcessed(sizer.batchLength(), TimeUnit.MICROSECONDS.toNanos(sizer.batchLength()));
+        }
+        Assert.assertEquals(1000, sizer.batchLength());
+        for (int i = 0 ; i < 20 ; i++) {
+            sizer.batchProcessed(sizer.batchLength(), TimeUnit.MILLISECONDS.toNanos(sizer.batchLength()));
+        }
+        Assert.assertEquals(10, sizer.batchLength());
+    }
+
+    /**
+     * Verify that a list is cut at each change of key, and long runs are cut at the maximum length
+     */
+    @Test
+    public void testBufferBy() {
+        List<String> input = Arrays.asList("a1", "a2", "b1", "c1", "c2", "c3", "c4", "c5", "a3");
+        List<List<String>> expected = Arrays.asList(Arrays.asList("a1", "a2"), Collections.singletonList("b1"),
+                Arrays.asList("c1", "c2", "c3"), Arrays.asList("c4", "c5"), Collections.singletonList("a3"));
+        Assert.assertEquals(expected, StreamBuffer.bufferBy(input.stream(), value -> value.charAt(0), 3)
+                .collect(Collectors.toList()));
+        List<List<String>> bulk = new ArrayList<>();
+        StreamBuffer.bufferBy(input.stream(), value -> value.charAt(0), 3).spliterator().forEachRemaining(bulk::add);
+        Assert.assertEquals(expected, bulk);
+        Assert.assertEquals(expected, StreamBuffer.bufferBy(input.parallelStream(), value -> value.charAt(0), 3)
+                .parallel().collect(Collectors.toList()));
+    }
+
+    /**
+     * Verify that overlapping and skipping windows hold the right elements, and the count is exact
+     */
+    @Test
+    public void testWindow() {
+        for (int size = 1 ; size < 7 ; size++) {
+            for (int step = 1 ; step < 9 ; step++) {
+                List<List<Long>> expected = new ArrayList<>();
+                for (long start = 0 ; start + size <= 50 ; start += step) {
+                    expected.add(LongStream.range(start, start + size).boxed().collect(Collectors.toList()));
+                }
+                Spliterator<List<Long>> windows = StreamBuffer.window(LongStream.range(0, 50).boxed(), size, step)
+                        .spliterator();
+                Assert.assertEquals(expected.size(), windows.getExactSizeIfKnown());
+                List<List<Long>> actual = new ArrayList<>();
+                windows.forEachRemaining(actual::add);
+                Assert.assertEquals(expected, actual);
+            }
+        }
+    }
+
+    /**
+     * Verify that a window can't be changed
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void testWindowImmutable() {
+        StreamBuffer.window(LongStream.range(0, 10).boxed(), 4, 2).findFirst().get().set(0, 1L);
+    }
+
+    /**
+     * Verify that off-heap batches decode to the same lists, including batches too large for the pooled buffers
+     */
+    @Test
+    public void testOffHeap() {
+        ElementCodec<String> codec = new Utf8Codec();
+        List<String> input = LongStream.range(0, 1003).mapToObj(value -> "E" + value).collect(Collectors.toList());
+        List<List<String>> decoded = new ArrayList<>();
+        StreamBuffer.bufferOffHeap(input.stream(), 3, 10, codec, 32, 2).forEach(batch -> {
+            try (OffHeapBatch<String> closing = batch) {
+                decoded.add(new ArrayList<>(closing));
+                Assert.assertEquals(String.join("", closing), StandardCharsets.UTF_8.decode(closing.buffer()).toString());
+            }
+        });
+        Assert.assertEquals(StreamBuffer.buffer(input.stream(), 3, 10).collect(Collectors.toList()), decoded);
+    }
+
+    /**
+     * Verify that batches over the memory budget spill the rest of their elements, and read back the same
+     */
+    @Test
+    public void testSpilling() {
+        List<String> input = LongStream.range(0, 1003).mapToObj(value -> "E" + value).collect(Collectors.toList());
+        List<List<String>> read = new ArrayList<>();
+        List<Integer> spilled = new ArrayList<>();
+        StreamBuffer.bufferSpilling(input.stream(), 3, 100, String::length, 200, new Utf8Codec()).forEach(batch -> {
+            try (SpillingBatch<String> closing = batch) {
+                spilled.add(closing.spilledSize());
+                read.add(new ArrayList<>(closing));
+            }
+        });
+        Assert.assertEquals(StreamBuffer.buffer(input.stream(), 3, 100).collect(Collectors.toList()), read);
+        Assert.assertEquals(Integer.valueOf(30), spilled.get(0));
+        Assert.assertEquals(Integer.valueOf(0), spilled.get(spilled.size() - 1));
+    }
+
+    /**
+     * Verify that a monitored buffer publishes its statistics over JMX until its source has been read to the end,
+     * or it's closed
+     */
+    @Test
+    public void testMonitored() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("dev.acraig.streambuffer:type=StreamBuffer,name=\"test\"");
+        Iterator<List<Long>> batches = StreamBuffer.bufferMonitored(LongStream.range(0, 23).boxed(), 2, 5, "test")
+                .iterator();
+        batches.next();
+        batches.next();
+        Assert.assertEquals(2L, server.getAttribute(name, "Batches"));
+        Assert.assertEquals(10L, server.getAttribute(name, "Elements"));
+        Assert.assertEquals(5L, server.getAttribute(name, "MaxBatchSize"));
+        Assert.assertEquals(5.0, (Double) server.getAttribute(name, "AverageBatchSize"), 1e-9);
+        Assert.assertEquals(5, server.getAttribute(name, "CurrentBatchLength"));
+        Assert.assertEquals(0L, server.getAttribute(name, "SplitsAccepted"));
+        Assert.assertTrue((Long) server.getAttribute(name, "SourceBlockedNanos") > 0);
+        try {
+            StreamBuffer.bufferMonitored(Stream.empty(), 1, 1, "test");
+            Assert.fail("The name is already registered");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+        batches.forEachRemaining(list -> { });
+        Assert.assertFalse(server.isRegistered(name)); //unregistered without being closed
+        List<Long> input = LongStream.range(0, 10000).boxed().collect(Collectors.toList());
+        Assert.assertEquals(10000, StreamBuffer.bufferMonitored(input.stream(), 1, 10, "test").parallel()
+                .mapToInt(List::size).sum());
+        Assert.assertFalse(server.isRegistered(name)); //once every split has been read to the end
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(1, 100, 1, TimeUnit.MILLISECONDS);
+        try (Stream<List<Long>> buffered = StreamBuffer.bufferMonitored(LongStream.range(0, 23).boxed(), 1, sizer,
+                "test")) {
+            Assert.assertEquals(sizer.batchLength(), server.getAttribute(name, "CurrentBatchLength"));
+            Assert.assertTrue(buffered.findFirst().isPresent());
+            Assert.assertTrue(server.isRegistered(name));
+        }
+        Assert.assertFalse(server.isRegistered(name));
+    }
+
+    /**
+     * Verify that when an element can't be spilled, the batch being filled is discarded, deleting its file
+     */
+    @Test
+    public void testSpillingFailure() throws Exception {
+        List<String> input = LongStream.range(0, 1003).mapToObj(value -> "E" + value).collect(Collectors.toList());
+        ElementCodec<String> failing = new Utf8Codec() {
+            @Override
+            public void encode(final String element, final ByteBuffer target) {
+                if (element.equals("E150")) {
+                    throw new IllegalArgumentException("Can't encode " + element);
+                }
+                super.encode(element, target);
+            }
+        };
+        for (boolean bulk : new boolean[] {false, true}) {
+            Spliterator<SpillingBatch<String>> spliterator = StreamBuffer.bufferSpilling(input.stream(), 3, 100,
+                    String::length, 200, failing).spliterator();
+            try {
+                if (bulk) {
+                    spliterator.forEachRemaining(SpillingBatch::close);
+                } else {
+                    while (spliterator.tryAdvance(SpillingBatch::close)) {
+                        //close each batch
+                    }
+                }
+                Assert.fail("The codec failure should have been rethrown");
+            } catch (IllegalArgumentException expected) {
+                Assert.assertEquals(0, spillFiles());
+            }
+        }
+    }
+
+    /**
+     * Verify that the statistics count the lists formed, the absorbed remainder, and the splits
+     */
+    @Test
+    public void testStatistics() {
+        for (boolean bulk : new boolean[] {false, true}) {
+            BatchStatistics statistics = new BatchStatistics();
+            Spliterator<List<Long>> spliterator = StreamBuffer.buffer(LongStream.range(0, 23).boxed(), 2, 5, statistics)
+                    .spliterator();
+            if (bulk) {
+                spliterator.forEachRemaining(list -> { });
+            } else {
+                while (spliterator.tryAdvance(list -> { })) {
+                    //count each list
+                }
+            }
+            Assert.assertEquals(5, statistics.getBatches());
+            Assert.assertEquals(23, statistics.getElements());
+            Assert.assertEquals(5, statistics.getMaxBatchSize());
+            Assert.assertEquals(0, statistics.getAbsorptions());
+            Assert.assertEquals(1, statistics.getSourcesExhausted());
+            Assert.assertEquals(5, Arrays.stream(statistics.getFillTimeHistogram()).sum());
+            Assert.assertTrue(statistics.getFillTimePercentile(50) > 0);
+        }
+        BatchStatistics absorbed = new BatchStatistics();
+        Assert.assertEquals(4, StreamBuffer.buffer(LongStream.range(0, 21).boxed(), 2, 5, absorbed).count());
+        Assert.assertEquals(0, absorbed.getBatches()); //counted from the size, without forming any lists
+        StreamBuffer.buffer(LongStream.range(0, 21).boxed(), 2, 5, absorbed).forEach(list -> { });
+        Assert.assertEquals(1, absorbed.getAbsorptions());
+        Assert.assertEquals(6, absorbed.getMaxBatchSize());
+        BatchStatistics split = new BatchStatistics();
+        Spliterator<List<Long>> spliterator = StreamBuffer.buffer(LongStream.range(0, 1000).boxed()
+                .collect(Collectors.toList()).stream(), 1, 5, split)
+                .spliterator();
+        Assert.assertNotNull(spliterator.trySplit());
+        Assert.assertEquals(1, split.getSplits(BatchListener.SplitOutcome.ACCEPTED));
+        Assert.assertNull(StreamBuffer.buffer(LongStream.range(0, 10).boxed(), 1, 5, split).spliterator().trySplit());
+        Assert.assertEquals(1, split.getSplits(BatchListener.SplitOutcome.REFUSED_TOO_SMALL));
+    }
+
+    /**
+     * Verify that lists are cut by weight, with oversized elements on their own
+     */
+    @Test
+    public void testWeight() {
+        List<String> input = Arrays.asList("aa", "bbb", "c", "dddddddd", "ee", "f");
+        List<List<String>> collected = StreamBuffer.bufferByWeight(input.stream(), 1, String::length, 6)
+                .collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList(Arrays.asList("aa", "bbb", "c"), Collections.singletonList("dddddddd"),
+                Arrays.asList("ee", "f")), collected);
+        List<List<String>> absorbed = StreamBuffer.bufferByWeight(input.stream(), 3, String::length, 6)
+                .collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList(Arrays.asList("aa", "bbb", "c"), Arrays.asList("dddddddd", "ee", "f")), absorbed);
+    }
+
+    /**
+     * Verify that a parallel weighted buffer only cuts a few lists short where the source was split
+     */
+    @Test
+    public void testWeightParallel() {
+        List<Long> input = LongStream.range(0, 10000).boxed().collect(Collectors.toList());
+        List<List<Long>> collected = StreamBuffer.bufferByWeight(input.stream(), 1, value -> 1, 100).parallel()
+                .collect(Collectors.toList());
+        Assert.assertEquals(input, collected.stream().flatMap(List::stream).collect(Collectors.toList()));
+        Assert.assertTrue(collected.stream().allMatch(list -> list.size() <= 100));
+        long cutShort = collected.stream().filter(list -> list.size() < 100).count();
+        Assert.assertTrue("Lists cut short: " + cutShort, cutShort <= 8);
+        Spliterator<List<Long>> spliterator = StreamBuffer.bufferByWeight(input.stream(), 1, value -> 1, 100)
+                .spliterator();
+        Assert.assertEquals(10000, spliterator.estimateSize());
+        spliterator.tryAdvance(list -> { });
+        Assert.assertEquals(9900, spliterator.estimateSize());
+    }
+
+    /**
+     * Verify that traversing a weighted buffer in bulk cuts the lists in the same places as pulling them one at a time
+     */
+    @Test
+    public void testWeightBulkMatchesTryAdvance() {
+        Random random = new Random(0);
+        for (int size = 0 ; size < 40 ; size++) {
+            List<Long> input = random.longs(size, 0, 6).boxed().collect(Collectors.toList());
+            for (int minSize = 1 ; minSize < 5 ; minSize++) {
+                for (long maxWeight = 1 ; maxWeight < 12 ; maxWeight++) {
+                    List<List<Long>> bulk = StreamBuffer.bufferByWeight(input.stream(), minSize, Long::longValue, maxWeight)
+                            .collect(Collectors.toList());
+                    List<List<Long>> single = new ArrayList<>();
+                    Spliterator<List<Long>> spliterator = StreamBuffer.bufferByWeight(input.stream(), minSize,
+                            Long::longValue, maxWeight).spliterator();
+                    while (spliterator.tryAdvance(single::add)) {
+                        Assert.assertTrue(single.size() <= size);
+                    }
+                    Assert.assertEquals(single, bulk);
+                    Assert.assertEquals(input, bulk.stream().flatMap(List::stream).collect(Collectors.toList()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Verify that a queue that's already populated is cut into full batches, absorbing the tail
+     */
+    @Test
+    public void testQueueFull() {
+        BlockingQueue<Long> queue = new LinkedBlockingQueue<>();
+        Long endOfStream = -1L;
+        LongStream.range(0, 11).forEach(queue::add);
+        queue.add(endOfStream);
+        List<List<Long>> collected = StreamBuffer.buffer(queue, endOfStream, 2, 5, 1, TimeUnit.MINUTES)
+                .collect(Collectors.toList());
+        Assert.assertEquals(2, collected.size());
+        Assert.assertEquals(5, collected.get(0).size());
+        Assert.assertEquals(6, collected.get(1).size());
+    }
+
+    /**
+     * Verify that a partial batch is sent once the linger time has passed
+     */
+    @Test
+    public void testQueueLinger() throws Exception {
+        BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        String endOfStream = "END";
+        Thread producer = new Thread(() -> {
+            try {
+                queue.put("E1");
+                queue.put("E2");
+                Thread.sleep(500);
+                queue.put("E3");
+                queue.put(endOfStream);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        List<List<String>> collected = StreamBuffer.buffer(queue, endOfStream, 1, 5, 50, TimeUnit.MILLISECONDS)
+                .collect(Collectors.toList());
+        producer.join();
+        Assert.assertEquals(Arrays.asList(Arrays.asList("E1", "E2"), Collections.singletonList("E3")), collected);
+    }
+
+    /**
+     * Verify that a full batch isn't held back waiting to look ahead, and that a partial batch started by an
+     * element read ahead is sent once the linger time since that element arrived has passed, rather than
+     * waiting the whole linger time again
+     */
+    @Test
+    public void testQueueLingerLookahead() throws Exception {
+        BlockingQueue<Long> queue = new LinkedBlockingQueue<>();
+        LongStream.range(0, 3).forEach(queue::add);
+        Spliterator<List<Long>> spliterator = StreamBuffer.buffer(queue, -1L, 2, 2, 1, TimeUnit.SECONDS).spliterator();
+        List<List<Long>> collected = new ArrayList<>();
+        long start = System.nanoTime();
+        Assert.assertTrue(spliterator.tryAdvance(collected::add)); //full, with 2 read ahead
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        Thread.sleep(600);
+        long second = System.nanoTime();
+        Assert.assertTrue(spliterator.tryAdvance(collected::add)); //lingers for what's left of the second
+        long waited = System.nanoTime() - second;
+        Assert.assertTrue("Waited " + waited, waited < TimeUnit.MILLISECONDS.toNanos(800));
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(950));
+        Assert.assertEquals(Arrays.asList(Arrays.asList(0L, 1L), Collections.singletonList(2L)), collected);
+    }
+
+    /**
+     * @return the number of live threads mapping lists for {@link StreamBuffer#mapBatches}
+     */
+    private static long mapThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.isAlive() && thread.getName().equals("stream-buffer-map")).count();
+    }
+
+    /**
+     * @return the number of spill files in the temporary directory
+     * @throws IOException if the directory can't be read
+     */
+    private static int spillFiles() throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(System.getProperty("java.io.tmpdir")),
+                "stream-buffer*.spill")) {
+            for (Path ignored : files) {
+                count++;
+            }
+        }
+        return count;
+    }
+
     /**
      * Verify that the groups provided are all consecutive (even if the resulting end stream isn't)
      * @param values the values
@@ -127,4 +930,25 @@ public class StreamBufferTest {
         }
         return valid;
     }
+
+    /**
+     * Codec writing strings as UTF-8
+     */
+    private static class Utf8Codec implements ElementCodec<String> {
+        @Override
+        public void encode(final String element, final ByteBuffer target) {
+            byte[] bytes = element.getBytes(StandardCharsets.UTF_8);
+            if (target.remaining() < bytes.length) {
+                throw new BufferOverflowException();
+            }
+            target.put(bytes);
+        }
+
+        @Override
+        public String decode(final ByteBuffer source) {
+            byte[] bytes = new byte[source.remaining()];
+            source.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
 }
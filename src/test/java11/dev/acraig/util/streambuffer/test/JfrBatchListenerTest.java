@@ -0,0 +1,87 @@
+package dev.acraig.util.streambuffer.test;
+
+import dev.acraig.util.streambuffer.BatchStatistics;
+import dev.acraig.util.streambuffer.StreamBuffer;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * Unit test for the flight recorder events
+ */
+public class JfrBatchListenerTest {
+    /**
+     * Verify that forming each batch and splitting are recorded while a recording is running
+     */
+    @Test
+    public void testEventsRecorded() throws Exception {
+        Path file = Files.createTempFile("stream-buffer", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("dev.acraig.streambuffer.BatchFormed");
+            recording.enable("dev.acraig.streambuffer.Split");
+            recording.start();
+            StreamBuffer.buffer(LongStream.empty().boxed(), 2, 5).spliterator().tryAdvance(list -> { }); //no batch
+            StreamBuffer.buffer(LongStream.range(0, 23).boxed().peek(value -> sleep()), 2, 5).spliterator()
+                    .forEachRemaining(list -> { });
+            StreamBuffer.buffer(LongStream.range(0, 10).boxed(), 1, 5).spliterator().trySplit();
+            recording.stop();
+            recording.dump(file);
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            List<RecordedEvent> formed = events.stream()
+                    .filter(event -> event.getEventType().getName().equals("dev.acraig.streambuffer.BatchFormed"))
+                    .collect(Collectors.toList());
+            List<Integer> sizes = formed.stream().map(event -> event.getInt("size")).collect(Collectors.toList());
+            Assert.assertEquals(5, sizes.size());
+            Assert.assertEquals(23, sizes.stream().mapToInt(Integer::intValue).sum());
+            //each event spans the time spent reading its batch
+            Assert.assertTrue(formed.stream()
+                    .allMatch(event -> event.getDuration().compareTo(Duration.ofMillis(1)) >= 0));
+            Assert.assertTrue(events.stream().anyMatch(event -> event.getEventType().getName()
+                    .equals("dev.acraig.streambuffer.Split") && event.getString("outcome").equals("REFUSED_TOO_SMALL")));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Verify that the events are still recorded when a listener is given, as well as being sent to the listener
+     */
+    @Test
+    public void testEventsRecordedWithListener() throws Exception {
+        Path file = Files.createTempFile("stream-buffer", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("dev.acraig.streambuffer.BatchFormed");
+            recording.start();
+            BatchStatistics statistics = new BatchStatistics();
+            StreamBuffer.buffer(LongStream.range(0, 23).boxed(), 2, 5, statistics).forEach(list -> { });
+            recording.stop();
+            recording.dump(file);
+            Assert.assertEquals(5, statistics.getBatches());
+            Assert.assertEquals(5, RecordingFile.readAllEvents(file).stream()
+                    .filter(event -> event.getEventType().getName().equals("dev.acraig.streambuffer.BatchFormed"))
+                    .count());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Wait a millisecond, to slow down reading the source
+     */
+    private static void sleep() {
+        try {
+            Thread.sleep(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package dev.acraig.util.streambuffer.test;
+
+import dev.acraig.util.streambuffer.FlowBuffer;
+import dev.acraig.util.streambuffer.StreamBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Unit test for the reactive stream adapters
+ */
+public class FlowBufferTest {
+    /**
+     * Verify that the publisher sends exactly as many lists as are requested, then completes
+     */
+    @Test
+    public void testPublisherDemand() {
+        RecordingSubscriber<List<Long>> subscriber = new RecordingSubscriber<>();
+        FlowBuffer.publisher(LongStream.range(0, 23).boxed(), 2, 5).subscribe(subscriber);
+        Assert.assertTrue(subscriber.received.isEmpty());
+        subscriber.subscription.request(2);
+        Assert.assertEquals(2, subscriber.received.size());
+        Assert.assertFalse(subscriber.completed);
+        subscriber.subscription.request(10);
+        Assert.assertTrue(subscriber.completed);
+        Assert.assertEquals(LongStream.range(0, 23).boxed().collect(Collectors.toList()),
+                subscriber.received.stream().flatMap(List::stream).collect(Collectors.toList()));
+    }
+
+    /**
+     * Verify that requesting one list at a time from within onNext doesn't recurse
+     */
+    @Test
+    public void testPublisherRequestInOnNext() {
+        RecordingSubscriber<List<Long>> subscriber = new RecordingSubscriber<List<Long>>() {
+            @Override
+            public void onNext(final List<Long> item) {
+                super.onNext(item);
+                subscription.request(1);
+            }
+        };
+        FlowBuffer.publisher(LongStream.range(0, 100000).boxed(), 1, 1).subscribe(subscriber);
+        subscriber.subscription.request(1);
+        Assert.assertTrue(subscriber.completed);
+        Assert.assertEquals(100000, subscriber.received.size());
+    }
+
+    /**
+     * Verify that an invalid request and a second subscriber are both signalled as errors
+     */
+    @Test
+    public void testPublisherErrors() {
+        Flow.Publisher<List<Long>> publisher = FlowBuffer.publisher(LongStream.range(0, 10).boxed(), 1, 5);
+        RecordingSubscriber<List<Long>> first = new RecordingSubscriber<>();
+        publisher.subscribe(first);
+        first.subscription.request(0);
+        Assert.assertTrue(first.error instanceof IllegalArgumentException);
+        RecordingSubscriber<List<Long>> second = new RecordingSubscriber<>();
+        publisher.subscribe(second);
+        Assert.assertTrue(second.error instanceof IllegalStateException);
+    }
+
+    /**
+     * Verify that buffering a publisher gives the same lists as buffering a stream, requesting a list at a time
+     */
+    @Test
+    public void testBufferPublisher() {
+        List<Long> requests = new ArrayList<>();
+        Flow.Publisher<List<Long>> source = FlowBuffer.publisher(LongStream.range(0, 1003).boxed(), 1, 1);
+        Flow.Publisher<Long> publisher = subscriber -> source.subscribe(new Flow.Subscriber<List<Long>>() {
+            @Override
+            public void onSubscribe(final Flow.Subscription subscription) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(final long n) {
+                        requests.add(n);
+                        subscription.request(n);
+                    }
+
+                    @Override
+                    public void cancel() {
+                        subscription.cancel();
+                    }
+                });
+            }
+
+            @Override
+            public void onNext(final List<Long> item) {
+                item.forEach(subscriber::onNext);
+            }
+
+            @Override
+            public void onError(final Throwable throwable) {
+                subscriber.onError(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                subscriber.onComplete();
+            }
+        });
+        try (Stream<List<Long>> buffered = FlowBuffer.buffer(publisher, 3, 10)) {
+            Assert.assertEquals(StreamBuffer.buffer(LongStream.range(0, 1003).boxed(), 3, 10).collect(Collectors.toList()),
+                    buffered.collect(Collectors.toList()));
+        }
+        Assert.assertTrue(requests.stream().allMatch(n -> n == 10));
+    }
+
+    /**
+     * Verify that an error from the publisher is rethrown from the stream
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void testBufferPublisherError() {
+        Flow.Publisher<Long> failing = subscriber -> {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(final long n) {
+                    subscriber.onError(new UnsupportedOperationException("failed"));
+                }
+
+                @Override
+                public void cancel() {
+                    //nothing to stop
+                }
+            });
+        };
+        FlowBuffer.buffer(failing, 1, 10).forEach(list -> { });
+    }
+
+    /**
+     * Subscriber recording everything it's sent
+     * @param <T> the datatype
+     */
+    private static class RecordingSubscriber<T> implements Flow.Subscriber<T> {
+        final List<T> received = new ArrayList<>();
+        Flow.Subscription subscription;
+        Throwable error;
+        boolean completed;
+
+        @Override
+        public void onSubscribe(final Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(final T item) {
+            received.add(item);
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}